@@ -0,0 +1,99 @@
+package test;
+
+import io.netty.channel.DefaultEventLoop;
+import kcp.threading.IMessageExecutor;
+import kcp.threading.ITask;
+import kcp.threading.disruptor.DisruptorSingleExecutor;
+import kcp.threading.netty.NettyMessageExecutor;
+
+import java.util.Arrays;
+
+/**
+ * 测试执行线程中直接执行对一问一答延迟的影响
+ *
+ * 外部线程提交一个请求任务(相当于收到一个包) 请求任务在执行线程中再提交一个回复任务(相当于handleReceive里写回复)
+ * 回复任务执行后外部线程结束计时 分别测量关闭和开启直接执行时一个来回的延迟
+ * hop是执行线程内从请求任务提交回复到回复任务开始执行的时间 不受外部线程调度的影响 直接执行省下的就是这一段
+ */
+public class InlineExecutorPingPongBenchmark {
+
+    private static final int WARMUP = 50_000;
+
+    private static final int ROUNDS = 200_000;
+
+    private static final int MAX_INLINE_DEPTH = 8;
+
+    private final IMessageExecutor executor;
+
+    private volatile boolean replied;
+
+    /**
+     * 只在执行线程中读写 外部线程在replied之后读取
+     */
+    private long requestTime;
+
+    private long hop;
+
+    private final ITask reply = () -> {
+        hop = System.nanoTime() - requestTime;
+        replied = true;
+    };
+
+    private final ITask request;
+
+    private InlineExecutorPingPongBenchmark(IMessageExecutor executor) {
+        this.executor = executor;
+        this.request = () -> {
+            requestTime = System.nanoTime();
+            executor.execute(reply);
+        };
+    }
+
+    public static void main(String[] args) {
+        DisruptorSingleExecutor disruptorExecutor = new DisruptorSingleExecutor("benchmark");
+        disruptorExecutor.start();
+        run("disruptor", disruptorExecutor);
+        disruptorExecutor.stop();
+
+        DefaultEventLoop eventLoop = new DefaultEventLoop();
+        run("netty", new NettyMessageExecutor(eventLoop));
+        eventLoop.shutdownGracefully();
+    }
+
+    private static void run(String name, IMessageExecutor executor) {
+        InlineExecutorPingPongBenchmark benchmark = new InlineExecutorPingPongBenchmark(executor);
+        for (int maxInlineDepth : new int[]{0, MAX_INLINE_DEPTH}) {
+            executor.setMaxInlineDepth(maxInlineDepth);
+            benchmark.pingPong(new long[WARMUP], new long[WARMUP]);
+            long[] latencies = new long[ROUNDS];
+            long[] hops = new long[ROUNDS];
+            benchmark.pingPong(latencies, hops);
+            System.out.println(name + " maxInlineDepth=" + maxInlineDepth
+                    + " rtt " + summary(latencies) + " hop " + summary(hops));
+        }
+    }
+
+    private static String summary(long[] samples) {
+        Arrays.sort(samples);
+        long sum = 0;
+        for (long sample : samples) {
+            sum += sample;
+        }
+        return "avg=" + sum / samples.length + "ns"
+                + " p50=" + samples[samples.length / 2] + "ns"
+                + " p99=" + samples[samples.length * 99 / 100] + "ns";
+    }
+
+    private void pingPong(long[] latencies, long[] hops) {
+        for (int i = 0; i < latencies.length; i++) {
+            replied = false;
+            long start = System.nanoTime();
+            executor.execute(request);
+            while (!replied) {
+                //自旋等待 不把外部线程的唤醒时间算进去
+            }
+            latencies[i] = System.nanoTime() - start;
+            hops[i] = hop;
+        }
+    }
+}
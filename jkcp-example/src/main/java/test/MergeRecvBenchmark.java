@@ -0,0 +1,113 @@
+package test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import kcp.kcp.KcpProtocol;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比mergeRecv拷贝模式和CompositeByteBuf零拷贝模式
+ *
+ * 两个KcpProtocol在内存里对接 每次调用发送一条消息 接收端收齐后mergeRecv并按long读完整条消息
+ * 运行: java -cp jkcp-example.jar test.MergeRecvBenchmark
+ * 2026-10-16.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeRecvBenchmark {
+
+    @Param({"4096", "65536", "262144"})
+    private int messageSize;
+
+    @Param({"false", "true"})
+    private boolean compositeRecv;
+
+    private KcpProtocol sender;
+
+    private KcpProtocol receiver;
+
+    private final List<ByteBuf> toReceiver = new ArrayList<>();
+
+    private final List<ByteBuf> toSender = new ArrayList<>();
+
+    private ByteBuf message;
+
+    private long now;
+
+    @Setup
+    public void setup() {
+        sender = KcpProtocol.newInstance((data, kcp) -> toReceiver.add(data));
+        receiver = KcpProtocol.newInstance((data, kcp) -> toSender.add(data));
+        for (KcpProtocol kcp : new KcpProtocol[]{sender, receiver}) {
+            kcp.setConv(1);
+            kcp.setByteBufAllocator(PooledByteBufAllocator.DEFAULT);
+            kcp.nodelay(true, 10, 2, true);
+            kcp.setSndWnd(256);
+            kcp.setRcvWnd(256);
+            kcp.setMtu(1400);
+        }
+        receiver.setCompositeRecv(compositeRecv);
+        message = PooledByteBufAllocator.DEFAULT.directBuffer(messageSize);
+        for (int i = 0; i < messageSize; i++) {
+            message.writeByte(i);
+        }
+        now = System.currentTimeMillis();
+    }
+
+    @TearDown
+    public void tearDown() {
+        message.release();
+        sender.release();
+        receiver.release();
+    }
+
+    @Benchmark
+    public void sendAndMerge(Blackhole blackhole) {
+        now++;
+        ByteBuf data = message.retainedDuplicate();
+        sender.send(data);
+        data.release();
+        // 远端窗口未知时第一次flush发不完 循环到消息收齐
+        ByteBuf msg;
+        while ((msg = receiver.mergeRecv()) == null) {
+            sender.flush(false, now);
+            deliver(toReceiver, receiver);
+            receiver.flush(true, now);
+            deliver(toSender, sender);
+        }
+        long sum = 0;
+        while (msg.readableBytes() >= 8) {
+            sum += msg.readLong();
+        }
+        msg.release();
+        blackhole.consume(sum);
+    }
+
+    private void deliver(List<ByteBuf> datagrams, KcpProtocol to) {
+        to.input(datagrams, now);
+        for (ByteBuf datagram : datagrams) {
+            datagram.release();
+        }
+        datagrams.clear();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MergeRecvBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
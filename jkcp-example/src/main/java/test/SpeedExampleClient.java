@@ -3,26 +3,31 @@ package test;
 import com.backblaze.erasure.fec.Snmp;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
-import kcp.ChannelConfig;
-import kcp.KcpClient;
-import kcp.KcpListener;
-import kcp.Ukcp;
-import threadPool.disruptor.DisruptorExecutorPool;
+import kcp.congestion.BbrCongestionController;
+import kcp.core.ChannelConfig;
+import kcp.core.KcpClient;
+import kcp.kcp.KcpConnection;
+import kcp.listener.KcpListener;
+import kcp.threading.disruptor.DisruptorExecutorPool;
 
 import java.net.InetSocketAddress;
 
 /**
  * 2020/12/23.
+ *
+ * 发送线程在写缓冲区超过高水位时停下 等onWritabilityChanged通知可写后继续 不再轮询和sleep
  */
 public class SpeedExampleClient implements KcpListener {
 
+    private final Object writableLock = new Object();
 
     public SpeedExampleClient() {
     }
 
     public static void main(String[] args) {
         ChannelConfig channelConfig = new ChannelConfig();
-        channelConfig.nodelay(true,30,2,true);
+        channelConfig.nodelay(true,30,2,false);
+        channelConfig.setCongestionControllerFactory(BbrCongestionController::new);
         channelConfig.setSndwnd(2048);
         channelConfig.setRcvwnd(2048);
         channelConfig.setMtu(1400);
@@ -33,6 +38,8 @@ public class SpeedExampleClient implements KcpListener {
         //channelConfig.setFecParityShardCount(3);
         channelConfig.setCrc32Check(false);
         channelConfig.setWriteBufferSize(channelConfig.getMtu()*300000);
+        channelConfig.setWriteBufferHighWaterMark(channelConfig.getMtu()*2048);
+        channelConfig.setWriteBufferLowWaterMark(channelConfig.getMtu()*1024);
         KcpClient kcpClient = new KcpClient();
         kcpClient.init(channelConfig);
 
@@ -44,9 +51,9 @@ public class SpeedExampleClient implements KcpListener {
     private long start = System.currentTimeMillis();
 
     @Override
-    public void onConnected(Ukcp ukcp) {
+    public void onConnected(KcpConnection connection) {
         new Thread(() -> {
-            for(;;){
+            while (connection.isActive()) {
                 long now =System.currentTimeMillis();
                 if(now-start>=1000){
                     System.out.println("耗时 :" +(now-start) +" 发送数据: " +(Snmp.snmp.OutBytes.doubleValue()/1024.0/1024.0)+"MB"+" 有效数据: "+Snmp.snmp.BytesSent.doubleValue()/1024.0/1024.0+" MB");
@@ -54,31 +61,49 @@ public class SpeedExampleClient implements KcpListener {
                     Snmp.snmp = new Snmp();
                     start=now;
                 }
-                ByteBuf byteBuf = ByteBufAllocator.DEFAULT.buffer(messageSize);
-                byteBuf.writeBytes(new byte[messageSize]);
-                if(!ukcp.write(byteBuf)){
-                    try {
-                        Thread.sleep(1);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                if (!connection.isWritable()) {
+                    synchronized (writableLock) {
+                        try {
+                            // 超时只是为了按时打印统计
+                            while (!connection.isWritable() && connection.isActive()) {
+                                writableLock.wait(1000);
+                            }
+                        } catch (InterruptedException e) {
+                            return;
+                        }
                     }
+                    continue;
                 }
-                byteBuf.release();
+                ByteBuf byteBuf = ByteBufAllocator.DEFAULT.buffer(messageSize);
+                byteBuf.writeBytes(new byte[messageSize]);
+                connection.write(byteBuf);
             }
         }).start();
     }
 
     @Override
-    public void handleReceive(ByteBuf byteBuf, Ukcp ukcp) {
+    public void onWritabilityChanged(KcpConnection connection) {
+        if (connection.isWritable()) {
+            synchronized (writableLock) {
+                writableLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void handleReceive(ByteBuf byteBuf, KcpConnection connection) {
     }
 
     @Override
-    public void handleException(Throwable ex, Ukcp kcp)
+    public void handleException(Throwable ex, KcpConnection connection)
     {
         ex.printStackTrace();
     }
 
     @Override
-    public void handleClose(Ukcp kcp) {
+    public void handleClose(KcpConnection connection) {
+        synchronized (writableLock) {
+            writableLock.notifyAll();
+        }
     }
 }
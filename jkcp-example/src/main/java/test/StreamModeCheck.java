@@ -0,0 +1,147 @@
+package test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import kcp.kcp.KcpProtocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 流模式正确性检查
+ *
+ * 两个KcpProtocol在内存里对接 链路随机丢包和乱序 发送端做大量随机长度(含1字节)的写入
+ * 接收端按mergeRecv拿到的连续字节逐字节校验 同时检查小写入是否被合并进尾部分片
+ * 运行: java -cp jkcp-example.jar test.StreamModeCheck [丢包率] [写入次数]
+ * 这是手动运行的检查程序 不在构建里自动执行 失败时打印原因并以退出码1结束
+ */
+public class StreamModeCheck {
+
+    private static final int MTU = 1400;
+
+    private final Random random = new Random(20261016);
+
+    private final double loss;
+
+    private final List<ByteBuf> toReceiver = new ArrayList<>();
+
+    private final List<ByteBuf> toSender = new ArrayList<>();
+
+    private int senderPackets;
+
+    private StreamModeCheck(double loss) {
+        this.loss = loss;
+    }
+
+    public static void main(String[] args) {
+        double loss = args.length > 0 ? Double.parseDouble(args[0]) : 0.1;
+        int writes = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        try {
+            for (boolean compositeRecv : new boolean[]{false, true}) {
+                new StreamModeCheck(loss).run(writes, compositeRecv);
+            }
+        } catch (IllegalStateException e) {
+            System.err.println("stream mode check failed: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("stream mode ok");
+    }
+
+    private void run(int writes, boolean compositeRecv) {
+        KcpProtocol sender = KcpProtocol.newInstance((data, kcp) -> {
+            senderPackets++;
+            link(data, toReceiver);
+        });
+        KcpProtocol receiver = KcpProtocol.newInstance((data, kcp) -> link(data, toSender));
+        for (KcpProtocol kcp : new KcpProtocol[]{sender, receiver}) {
+            kcp.setConv(1);
+            kcp.setByteBufAllocator(ByteBufAllocator.DEFAULT);
+            kcp.nodelay(true, 10, 2, true);
+            kcp.setSndWnd(256);
+            kcp.setRcvWnd(256);
+            kcp.setMtu(MTU);
+            kcp.setStream(true);
+        }
+        receiver.setCompositeRecv(compositeRecv);
+
+        long now = System.currentTimeMillis();
+        long sentBytes = 0;
+        long recvBytes = 0;
+        long callbacks = 0;
+        int written = 0;
+        while (written < writes || recvBytes < sentBytes) {
+            now++;
+            // 大部分是小写入 偶尔有跨多个mss的大写入
+            while (written < writes && sender.waitSnd() < 512) {
+                int len = random.nextInt(100) == 0 ? 1 + random.nextInt(64 * 1024) : 1 + random.nextInt(64);
+                ByteBuf buf = ByteBufAllocator.DEFAULT.ioBuffer(len);
+                for (int i = 0; i < len; i++) {
+                    buf.writeByte(pattern(sentBytes + i));
+                }
+                if (sender.send(buf) != 0) {
+                    throw new IllegalStateException("send failed, len=" + len);
+                }
+                buf.release();
+                sentBytes += len;
+                written++;
+            }
+            sender.update(now);
+            receiver.update(now);
+            deliver(toReceiver, receiver, now);
+            deliver(toSender, sender, now);
+            while (receiver.canRecv()) {
+                ByteBuf data = receiver.mergeRecv();
+                callbacks++;
+                while (data.isReadable()) {
+                    byte b = data.readByte();
+                    if (b != pattern(recvBytes)) {
+                        throw new IllegalStateException("mismatch at byte " + recvBytes);
+                    }
+                    recvBytes++;
+                }
+                data.release();
+            }
+            if (sender.getState() == -1) {
+                throw new IllegalStateException("dead link");
+            }
+        }
+        // 小写入合并后 数据包数应该接近 总字节/mss 而不是写入次数
+        System.out.println("compositeRecv=" + compositeRecv + " writes=" + writes + " bytes=" + recvBytes
+                + " packets=" + senderPackets + " callbacks=" + callbacks);
+        if (senderPackets >= writes) {
+            throw new IllegalStateException("small writes were not coalesced");
+        }
+        for (ByteBuf buf : toReceiver) {
+            buf.release();
+        }
+        for (ByteBuf buf : toSender) {
+            buf.release();
+        }
+        sender.release();
+        receiver.release();
+    }
+
+    private void link(ByteBuf data, List<ByteBuf> queue) {
+        if (random.nextDouble() < loss) {
+            data.release();
+            return;
+        }
+        queue.add(data);
+    }
+
+    private void deliver(List<ByteBuf> queue, KcpProtocol to, long now) {
+        // 乱序
+        Collections.shuffle(queue, random);
+        to.input(queue, now);
+        for (ByteBuf buf : queue) {
+            buf.release();
+        }
+        queue.clear();
+    }
+
+    private static byte pattern(long offset) {
+        return (byte) (offset * 31 + (offset >>> 8));
+    }
+}
@@ -1,5 +1,7 @@
 package kcp.core;
 
+import kcp.congestion.CongestionController;
+import kcp.kcp.OverflowPolicy;
 import kcp.threading.IMessageExecutorPool;
 import kcp.threading.netty.NettyMessageExecutorPool;
 
@@ -51,7 +53,7 @@ public class ChannelConfig {
     private int mtu = Kcp.IKCP_MTU_DEF;
     //超时时间 超过一段时间没收到消息断开连接
     private long timeoutMillis;
-    //TODO 可能有bug还未测试
+    //流模式 小的写入追加到未发送的尾部分片 接收端按连续字节回调 不保留消息边界
     private boolean stream;
 
     //收到包立刻回传ack包
@@ -60,13 +62,45 @@ public class ChannelConfig {
     private boolean fastFlush = true;
     //crc32校验
     private boolean crc32Check = false;
-    //接收窗口大小(字节 -1不限制)
+    //读缓冲区上限(排队的字节数 -1不限制)
     private int readBufferSize = -1;
-    //发送窗口大小(字节 -1不限制)
+    //写缓冲区上限(所有车道排队的字节数 -1不限制)
     private int writeBufferSize = -1;
 
-    //增加ack包回复成功率 填 /8/16/32
+    //选择确认(SACK)掩码位数 填 0/8/16/32/64 ack和数据包都携带una之后的接收位图 两端必须一致
     private int ackMaskSize = 0;
+    //拥塞控制器工厂 每个连接创建一个 null使用原生KCP拥塞控制 nodelay的nc为true时不生效
+    private CongestionController.Factory congestionControllerFactory;
+    //发送节奏控制 按拥塞控制器给出的速率(没有时按 窗口/RTT)把一个窗口的数据摊到多次flush发出 避免突发打满交换机和网卡队列
+    private boolean pacing = false;
+    //消息模式下多分片消息以CompositeByteBuf交给handleReceive 直接引用收到的数据报不再拷贝 大消息推荐开启
+    private boolean compositeRecv = false;
+    //小消息合并 多条消息按 varint长度+数据 打包进一个分片 第一条消息最多等待的微秒数 -1关闭 0只合并同一次写任务里的消息 两端必须一致 只用于消息模式
+    private int coalesceDelayMicros = -1;
+    //接收窗口自动调整的上限 按 交付速率×RTT 在rcvwnd和该值之间调整 应用处理慢时收缩 0关闭
+    private int maxRcvwnd = 0;
+    //按时间判断丢包(RACK)并对一批数据的尾部发送探测(TLP) 代替fastresend的重复ACK计数 抖动大的链路上减少虚假重传
+    private boolean rackTlp = false;
+    //区间ACK 连续sn的ACK合并成一个(起始sn,个数,最新ts)记录 同一个interval内多次收包的ACK一起发送 需要远端也是支持区间ACK的版本
+    private boolean ackRange = false;
+    //逻辑流复用 每个流初始的发送额度(字节) 0关闭 开启后通过openStream打开多个有序的流 listener需要同时实现KcpStreamListener 两端必须一致
+    private int streamWindow = 0;
+    //优先级车道数 1不区分优先级 write(byteBuf, priority)选择车道 0优先级最高 发送窗口和拥塞窗口共享 流模式下不生效
+    private int priorityLanes = 1;
+    //每个车道的权重 按权重轮询移入发送缓冲区 null为严格优先级
+    private int[] laneWeights;
+    //消息默认的存活时间(毫秒) 0不过期 超时还没有发出任何分片的消息在写缓冲区或发送队列中丢弃 流模式下只在写缓冲区生效
+    private long messageTtl = 0;
+    //写缓冲区按键合并 开启后writeConflated写入的同键消息在被写任务取走前只保留最新的一条 适合同步实体状态
+    private boolean conflateWrites = false;
+    //写缓冲区高水位(字节) 排队字节数超过后isWritable()返回false并回调onWritabilityChanged 0不检查
+    private int writeBufferHighWaterMark = 0;
+    //写缓冲区低水位(字节) 排队字节数降到该值及以下时恢复可写
+    private int writeBufferLowWaterMark = 0;
+    //读写缓冲区超过上限时的处理策略 REJECT_NEW丢弃新消息 DROP_OLDEST丢弃最早的消息 BLOCK写入线程等待 CLOSE_CONNECTION关闭连接
+    private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT_NEW;
+    //BLOCK策略最多等待的毫秒数 超时后丢弃新消息
+    private long overflowBlockMillis = 100;
     /**
      * 使用conv确定一个channel 还是使用 socketAddress确定一个channel
      **/
@@ -143,6 +177,14 @@ public class ChannelConfig {
         this.rcvwnd = rcvwnd;
     }
 
+    public int getMaxRcvwnd() {
+        return maxRcvwnd;
+    }
+
+    public void setMaxRcvwnd(int maxRcvwnd) {
+        this.maxRcvwnd = maxRcvwnd;
+    }
+
     public int getMtu() {
         return mtu;
     }
@@ -196,6 +238,126 @@ public class ChannelConfig {
         this.ackMaskSize = ackMaskSize;
     }
 
+    public CongestionController.Factory getCongestionControllerFactory() {
+        return congestionControllerFactory;
+    }
+
+    public void setCongestionControllerFactory(CongestionController.Factory congestionControllerFactory) {
+        this.congestionControllerFactory = congestionControllerFactory;
+    }
+
+    public boolean isPacing() {
+        return pacing;
+    }
+
+    public void setPacing(boolean pacing) {
+        this.pacing = pacing;
+    }
+
+    public boolean isCompositeRecv() {
+        return compositeRecv;
+    }
+
+    public void setCompositeRecv(boolean compositeRecv) {
+        this.compositeRecv = compositeRecv;
+    }
+
+    public int getCoalesceDelayMicros() {
+        return coalesceDelayMicros;
+    }
+
+    public void setCoalesceDelayMicros(int coalesceDelayMicros) {
+        this.coalesceDelayMicros = coalesceDelayMicros;
+    }
+
+    public boolean isRackTlp() {
+        return rackTlp;
+    }
+
+    public void setRackTlp(boolean rackTlp) {
+        this.rackTlp = rackTlp;
+    }
+
+    public boolean isAckRange() {
+        return ackRange;
+    }
+
+    public void setAckRange(boolean ackRange) {
+        this.ackRange = ackRange;
+    }
+
+    public int getStreamWindow() {
+        return streamWindow;
+    }
+
+    public void setStreamWindow(int streamWindow) {
+        this.streamWindow = streamWindow;
+    }
+
+    public int getPriorityLanes() {
+        return priorityLanes;
+    }
+
+    public void setPriorityLanes(int priorityLanes) {
+        this.priorityLanes = priorityLanes;
+    }
+
+    public int[] getLaneWeights() {
+        return laneWeights;
+    }
+
+    public void setLaneWeights(int[] laneWeights) {
+        this.laneWeights = laneWeights;
+    }
+
+    public long getMessageTtl() {
+        return messageTtl;
+    }
+
+    public void setMessageTtl(long messageTtl) {
+        this.messageTtl = messageTtl;
+    }
+
+    public boolean isConflateWrites() {
+        return conflateWrites;
+    }
+
+    public void setConflateWrites(boolean conflateWrites) {
+        this.conflateWrites = conflateWrites;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getOverflowBlockMillis() {
+        return overflowBlockMillis;
+    }
+
+    public void setOverflowBlockMillis(long overflowBlockMillis) {
+        this.overflowBlockMillis = overflowBlockMillis;
+    }
+
     public void setCrc32Check(boolean crc32Check) {
         this.crc32Check = crc32Check;
     }
@@ -150,6 +150,9 @@ public class KcpClient {
 
         Ukcp ukcp = new Ukcp(kcpOutput, kcpListener, iMessageExecutor, channelConfig,channelManager);
         ukcp.user(user);
+        //收发之前设置事件任务 第一个包的读事件不会丢失
+        ConnectionTask connectionTask = new ConnectionTask(iMessageExecutor, ukcp, hashedWheelTimer);
+        ukcp.setEventTask(connectionTask);
 
         channelManager.New(localAddress,ukcp,null);
         iMessageExecutor.execute(() -> {
@@ -160,8 +163,7 @@ public class KcpClient {
             }
         });
 
-        ScheduleTask scheduleTask = new ScheduleTask(iMessageExecutor, ukcp,hashedWheelTimer);
-        hashedWheelTimer.newTimeout(scheduleTask,ukcp.getInterval(),TimeUnit.MILLISECONDS);
+        hashedWheelTimer.newTimeout(connectionTask,ukcp.getInterval(),TimeUnit.MILLISECONDS);
         return ukcp;
     }
 
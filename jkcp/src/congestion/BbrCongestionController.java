@@ -0,0 +1,325 @@
+package kcp.congestion;
+
+import kcp.kcp.KcpConstants;
+
+/**
+ * 类BBR拥塞控制
+ *
+ * <p>不把丢包当作拥塞信号，而是持续估计两个量：</p>
+ * <ul>
+ *   <li><strong>瓶颈带宽</strong>：每轮(约一个平滑RTT)的交付速率，取最近 {@value #BW_WINDOW_ROUNDS} 轮的最大值</li>
+ *   <li><strong>最小RTT</strong>：{@value #MIN_RTT_WINDOW_MS} 毫秒内的最小RTT样本</li>
+ * </ul>
+ *
+ * <p>窗口为 cwndGain × 带宽时延积，发送速率为 pacingGain × 瓶颈带宽，按四个阶段调整增益：</p>
+ * <ul>
+ *   <li><strong>STARTUP</strong>：以2/ln2的增益指数探测，带宽连续3轮增长不足25%后认为管道已满</li>
+ *   <li><strong>DRAIN</strong>：以倒数增益排空启动阶段堆积的队列</li>
+ *   <li><strong>PROBE_BW</strong>：按 1.25/0.75/1... 的增益循环探测更多带宽</li>
+ *   <li><strong>PROBE_RTT</strong>：最小RTT过期时把窗口压到最小，持续 {@value #PROBE_RTT_DURATION_MS} 毫秒以重新测量</li>
+ * </ul>
+ *
+ * <p>带宽以分片/秒计，由确认的分片数估算，不区分分片实际长度。KCP的ACK通常随对端的flush间隔批量到达，
+ * 窗口额外加上最近单次确认的最大分片数，避免最小RTT偏小时窗口不足以维持带宽。</p>
+ *
+ * @since 1.6
+ */
+public class BbrCongestionController implements CongestionController {
+
+    private static final int BW_WINDOW_ROUNDS = 10;
+
+    private static final long MIN_RTT_WINDOW_MS = 10000;
+
+    private static final long PROBE_RTT_DURATION_MS = 200;
+
+    private static final int MIN_CWND = 4;
+
+    private static final int INITIAL_CWND = 10;
+
+    private static final float HIGH_GAIN = 2.885f;
+
+    private static final float DRAIN_GAIN = 1f / HIGH_GAIN;
+
+    private static final float CWND_GAIN = 2f;
+
+    private static final float[] PACING_GAIN_CYCLE = {1.25f, 0.75f, 1f, 1f, 1f, 1f, 1f, 1f};
+
+    /**
+     * 带宽增长低于该比例视为没有增长
+     */
+    private static final float FULL_BW_THRESH = 1.25f;
+
+    private static final int FULL_BW_ROUNDS = 3;
+
+    public enum Mode {
+        STARTUP,
+        DRAIN,
+        PROBE_BW,
+        PROBE_RTT
+    }
+
+    private Mode mode = Mode.STARTUP;
+
+    private int mss = KcpConstants.IKCP_MTU_DEF - KcpConstants.IKCP_OVERHEAD;
+
+    private int cwnd = INITIAL_CWND;
+
+    private float pacingGain = HIGH_GAIN;
+
+    private float cwndGain = HIGH_GAIN;
+
+    // ==================== 带宽估计 ====================
+
+    /**
+     * 最近若干轮的交付速率(分片/秒)
+     */
+    private final float[] bwSamples = new float[BW_WINDOW_ROUNDS];
+
+    /**
+     * 最近若干轮单次确认的最大分片数，对端按flush间隔批量回ACK时用来补偿窗口
+     */
+    private final int[] ackBatchSamples = new int[BW_WINDOW_ROUNDS];
+
+    private int maxAckBatch;
+
+    private int round;
+
+    /**
+     * 瓶颈带宽(分片/秒)
+     */
+    private float btlBw;
+
+    /**
+     * 累计确认的分片数
+     */
+    private long delivered;
+
+    private long roundStartTime = -1;
+
+    private long roundStartDelivered;
+
+    private float fullBw;
+
+    private int fullBwCount;
+
+    private boolean filledPipe;
+
+    // ==================== 最小RTT ====================
+
+    private int minRtt = -1;
+
+    /**
+     * 平滑RTT，决定一轮带宽采样的长度
+     */
+    private int srtt;
+
+    private long minRttStamp;
+
+    private boolean minRttExpired;
+
+    private long probeRttDoneStamp;
+
+    // ==================== PROBE_BW ====================
+
+    private int cycleIndex;
+
+    private long cycleStamp;
+
+    @Override
+    public void init(int mss) {
+        this.mss = mss;
+    }
+
+    @Override
+    public int getCwnd() {
+        return cwnd;
+    }
+
+    @Override
+    public long getPacingRate() {
+        return (long) (pacingGain * btlBw * mss);
+    }
+
+    @Override
+    public void onAck(int ackedSegs, int inflight, int rmtWnd, boolean unaAdvanced, long current) {
+        delivered += ackedSegs;
+        int slot = round % BW_WINDOW_ROUNDS;
+        if (ackedSegs > ackBatchSamples[slot]) {
+            ackBatchSamples[slot] = ackedSegs;
+        }
+        if (roundStartTime < 0) {
+            roundStartTime = current;
+            roundStartDelivered = delivered - ackedSegs;
+        }
+        long elapsed = current - roundStartTime;
+        if (elapsed > 0 && elapsed >= srtt) {
+            onRoundEnd((delivered - roundStartDelivered) * 1000f / elapsed);
+            roundStartTime = current;
+            roundStartDelivered = delivered;
+        }
+        updateMode(inflight, current);
+        updateCwnd(ackedSegs);
+    }
+
+    @Override
+    public void onRttSample(int rtt, long current) {
+        if (rtt <= 0) {
+            rtt = 1;
+        }
+        srtt = srtt == 0 ? rtt : srtt + ((rtt - srtt) >> 3);
+        if (minRtt < 0 || rtt <= minRtt || minRttExpired) {
+            minRtt = rtt;
+            minRttStamp = current;
+            minRttExpired = false;
+        }
+    }
+
+    @Override
+    public void onFastRetransmit(int inflight, int resent) {
+    }
+
+    @Override
+    public void onTimeout(int window) {
+        // 超时说明估计已失效 退回最小窗口 之后按确认重新增长
+        cwnd = MIN_CWND;
+    }
+
+    private void onRoundEnd(float sample) {
+        bwSamples[round % BW_WINDOW_ROUNDS] = sample;
+        float max = 0;
+        for (float bw : bwSamples) {
+            if (bw > max) {
+                max = bw;
+            }
+        }
+        btlBw = max;
+        int maxBatch = 0;
+        for (int batch : ackBatchSamples) {
+            if (batch > maxBatch) {
+                maxBatch = batch;
+            }
+        }
+        maxAckBatch = maxBatch;
+        round++;
+        ackBatchSamples[round % BW_WINDOW_ROUNDS] = 0;
+        if (filledPipe) {
+            return;
+        }
+        if (btlBw >= fullBw * FULL_BW_THRESH) {
+            fullBw = btlBw;
+            fullBwCount = 0;
+        } else if (++fullBwCount >= FULL_BW_ROUNDS) {
+            filledPipe = true;
+        }
+    }
+
+    private void updateMode(int inflight, long current) {
+        switch (mode) {
+            case STARTUP:
+                if (filledPipe) {
+                    setMode(Mode.DRAIN, current);
+                }
+                break;
+            case DRAIN:
+                if (inflight <= Math.ceil(bdp()) + maxAckBatch) {
+                    setMode(Mode.PROBE_BW, current);
+                }
+                break;
+            case PROBE_BW:
+                if (current - cycleStamp > minRtt) {
+                    cycleIndex = (cycleIndex + 1) % PACING_GAIN_CYCLE.length;
+                    cycleStamp = current;
+                    pacingGain = PACING_GAIN_CYCLE[cycleIndex];
+                }
+                break;
+            case PROBE_RTT:
+                if (current - probeRttDoneStamp >= 0) {
+                    minRttStamp = current;
+                    setMode(filledPipe ? Mode.PROBE_BW : Mode.STARTUP, current);
+                }
+                return;
+            default:
+                break;
+        }
+        if (minRtt > 0 && current - minRttStamp > MIN_RTT_WINDOW_MS) {
+            setMode(Mode.PROBE_RTT, current);
+        }
+    }
+
+    private void setMode(Mode mode, long current) {
+        this.mode = mode;
+        switch (mode) {
+            case STARTUP:
+                pacingGain = HIGH_GAIN;
+                cwndGain = HIGH_GAIN;
+                break;
+            case DRAIN:
+                pacingGain = DRAIN_GAIN;
+                cwndGain = HIGH_GAIN;
+                break;
+            case PROBE_BW:
+                cycleIndex = 0;
+                cycleStamp = current;
+                pacingGain = PACING_GAIN_CYCLE[0];
+                cwndGain = CWND_GAIN;
+                break;
+            case PROBE_RTT:
+                probeRttDoneStamp = current + PROBE_RTT_DURATION_MS;
+                // 探测期间的第一个样本直接替换旧的最小RTT
+                minRttExpired = true;
+                pacingGain = 1f;
+                cwndGain = 1f;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void updateCwnd(int ackedSegs) {
+        if (mode == Mode.PROBE_RTT) {
+            cwnd = MIN_CWND;
+            return;
+        }
+        if (btlBw <= 0 || minRtt < 0) {
+            // 还没有带宽样本 按确认数增长
+            cwnd += ackedSegs;
+            return;
+        }
+        int target = (int) Math.ceil(cwndGain * bdp()) + maxAckBatch;
+        if (filledPipe) {
+            cwnd = Math.min(cwnd + ackedSegs, target);
+        } else if (cwnd < target) {
+            cwnd += ackedSegs;
+        }
+        if (cwnd < MIN_CWND) {
+            cwnd = MIN_CWND;
+        }
+    }
+
+    /**
+     * 带宽时延积(分片)
+     */
+    private float bdp() {
+        return btlBw * minRtt / 1000f;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 瓶颈带宽估计
+     * @return 字节/秒
+     */
+    public long getBottleneckBandwidth() {
+        return (long) (btlBw * mss);
+    }
+
+    /**
+     * 最小RTT估计
+     * @return 毫秒，没有样本时为-1
+     */
+    public int getMinRtt() {
+        return minRtt;
+    }
+}
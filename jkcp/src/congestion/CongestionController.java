@@ -0,0 +1,89 @@
+package kcp.congestion;
+
+/**
+ * 拥塞控制器
+ *
+ * <p>{@link kcp.kcp.KcpProtocol#flush(boolean, long)} 每次发送前向它查询拥塞窗口和发送速率，
+ * 协议栈在收到确认、RTT采样、快速重传和超时重传时回调对应事件。窗口以分片为单位，
+ * 时间都是协议内部的毫秒时间。</p>
+ *
+ * <p>内置实现：</p>
+ * <ul>
+ *   <li>{@link KcpCongestionController}：原生KCP的慢启动/拥塞避免，默认使用</li>
+ *   <li>{@link FixedRateCongestionController}：按固定速率发送，窗口取速率与RTT的乘积</li>
+ *   <li>{@link BbrCongestionController}：估计瓶颈带宽和最小RTT，按带宽时延积控制窗口</li>
+ * </ul>
+ *
+ * <p>实例与连接一一对应，只在连接的执行线程中调用，非线程安全。</p>
+ *
+ * @since 1.6
+ */
+public interface CongestionController {
+
+    /**
+     * 初始化或分片大小变化时调用
+     *
+     * @param mss 最大分片大小
+     */
+    void init(int mss);
+
+    /**
+     * 当前拥塞窗口
+     *
+     * @return 允许在途的分片数，至少为1
+     */
+    int getCwnd();
+
+    /**
+     * 当前发送速率
+     *
+     * @return 字节/秒，0表示不限速
+     */
+    long getPacingRate();
+
+    /**
+     * 有分片被确认
+     *
+     * @param ackedSegs   本次input确认的分片数，包括乱序的单个ACK和SACK确认的分片
+     * @param inflight    确认后仍在途的分片数
+     * @param rmtWnd      远端接收窗口
+     * @param unaAdvanced 本次input是否推进了snd_una
+     * @param current     当前时间
+     */
+    void onAck(int ackedSegs, int inflight, int rmtWnd, boolean unaAdvanced, long current);
+
+    /**
+     * 收到一个RTT样本
+     *
+     * @param rtt     往返时间(毫秒)
+     * @param current 当前时间
+     */
+    void onRttSample(int rtt, long current);
+
+    /**
+     * 本次flush触发了快速重传
+     *
+     * @param inflight 在途分片数
+     * @param resent   快速重传阈值，未开启时为 {@link Integer#MAX_VALUE}
+     */
+    void onFastRetransmit(int inflight, int resent);
+
+    /**
+     * 本次flush发生了超时重传
+     *
+     * @param window 本次flush使用的发送窗口
+     */
+    void onTimeout(int window);
+
+    /**
+     * 拥塞控制器工厂，每个连接创建一个实例
+     */
+    interface Factory {
+
+        /**
+         * 创建拥塞控制器
+         * @return 拥塞控制器
+         */
+        CongestionController create();
+    }
+}
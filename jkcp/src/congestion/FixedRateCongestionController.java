@@ -0,0 +1,88 @@
+package kcp.congestion;
+
+import kcp.kcp.KcpConstants;
+
+/**
+ * 固定速率拥塞控制
+ *
+ * <p>不对丢包做反应，按配置的速率发送。窗口取 速率 × 平滑RTT 再留一倍余量，
+ * 保证在途数据足以维持目标速率；真正的限速由发送速率(pacing)完成。
+ * 适合带宽已知且独占的链路，例如专线上的批量传输。</p>
+ *
+ * @since 1.6
+ */
+public class FixedRateCongestionController implements CongestionController {
+
+    /**
+     * 最小拥塞窗口(分片)
+     */
+    private static final int MIN_CWND = 4;
+
+    /**
+     * 目标速率 字节/秒
+     */
+    private final long bytesPerSecond;
+
+    private int mss = KcpConstants.IKCP_MTU_DEF - KcpConstants.IKCP_OVERHEAD;
+
+    /**
+     * 平滑RTT(毫秒)，收到样本前使用默认RTO
+     */
+    private int srtt = KcpConstants.IKCP_RTO_DEF;
+
+    private int cwnd;
+
+    /**
+     * @param bytesPerSecond 目标速率 字节/秒
+     */
+    public FixedRateCongestionController(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be positive: " + bytesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        updateCwnd();
+    }
+
+    @Override
+    public void init(int mss) {
+        this.mss = mss;
+        updateCwnd();
+    }
+
+    @Override
+    public int getCwnd() {
+        return cwnd;
+    }
+
+    @Override
+    public long getPacingRate() {
+        return bytesPerSecond;
+    }
+
+    @Override
+    public void onAck(int ackedSegs, int inflight, int rmtWnd, boolean unaAdvanced, long current) {
+    }
+
+    @Override
+    public void onRttSample(int rtt, long current) {
+        srtt += (rtt - srtt) >> 3;
+        updateCwnd();
+    }
+
+    @Override
+    public void onFastRetransmit(int inflight, int resent) {
+    }
+
+    @Override
+    public void onTimeout(int window) {
+    }
+
+    private void updateCwnd() {
+        long bdp = bytesPerSecond * Math.max(srtt, 1) / 1000 / mss;
+        cwnd = (int) Math.max(MIN_CWND, Math.min(bdp * 2, Integer.MAX_VALUE));
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
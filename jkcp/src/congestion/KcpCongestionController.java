@@ -0,0 +1,95 @@
+package kcp.congestion;
+
+import kcp.kcp.KcpConstants;
+
+/**
+ * 原生KCP拥塞控制
+ *
+ * <p>与skywind3000/kcp的 ikcp_flush/ikcp_input 行为一致：</p>
+ * <ul>
+ *   <li><strong>慢启动</strong>：cwnd小于ssthresh时每次snd_una前移加1</li>
+ *   <li><strong>拥塞避免</strong>：按字节累计增量，约每个RTT加1</li>
+ *   <li><strong>只按累计确认增长</strong>：乱序的单个ACK和SACK没有推进snd_una时窗口不变</li>
+ *   <li><strong>快速重传</strong>：ssthresh减为在途分片数的一半，cwnd = ssthresh + resent</li>
+ *   <li><strong>超时重传</strong>：ssthresh减为窗口的一半，cwnd回到1</li>
+ * </ul>
+ *
+ * <p>不限制发送速率，窗口不会超过远端接收窗口。</p>
+ *
+ * @since 1.6
+ */
+public class KcpCongestionController implements CongestionController {
+
+    private int mss = KcpConstants.IKCP_MTU_DEF - KcpConstants.IKCP_OVERHEAD;
+
+    private int cwnd = 1;
+
+    /**
+     * 拥塞窗口增量(字节)
+     */
+    private int incr = mss;
+
+    private int ssthresh = KcpConstants.IKCP_THRESH_INIT;
+
+    @Override
+    public void init(int mss) {
+        this.mss = mss;
+        this.incr = cwnd * mss;
+    }
+
+    @Override
+    public int getCwnd() {
+        return cwnd;
+    }
+
+    @Override
+    public long getPacingRate() {
+        return 0;
+    }
+
+    @Override
+    public void onAck(int ackedSegs, int inflight, int rmtWnd, boolean unaAdvanced, long current) {
+        if (!unaAdvanced || cwnd >= rmtWnd) {
+            return;
+        }
+        if (cwnd < ssthresh) {
+            cwnd++;
+            incr += mss;
+        } else {
+            if (incr < mss) {
+                incr = mss;
+            }
+            incr += (mss * mss) / incr + (mss / 16);
+            if ((cwnd + 1) * mss <= incr) {
+                cwnd++;
+            }
+        }
+        if (cwnd > rmtWnd) {
+            cwnd = rmtWnd;
+            incr = rmtWnd * mss;
+        }
+    }
+
+    @Override
+    public void onRttSample(int rtt, long current) {
+    }
+
+    @Override
+    public void onFastRetransmit(int inflight, int resent) {
+        ssthresh = Math.max(inflight / 2, KcpConstants.IKCP_THRESH_MIN);
+        // 未开启快速重传时由提前重传触发 resent没有意义
+        cwnd = resent == Integer.MAX_VALUE ? ssthresh : ssthresh + resent;
+        incr = cwnd * mss;
+    }
+
+    @Override
+    public void onTimeout(int window) {
+        ssthresh = Math.max(window / 2, KcpConstants.IKCP_THRESH_MIN);
+        cwnd = 1;
+        incr = mss;
+    }
+
+    public int getSsthresh() {
+        return ssthresh;
+    }
+}
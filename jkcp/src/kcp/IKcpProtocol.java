@@ -1,5 +1,7 @@
 package kcp.kcp;
 
+import kcp.congestion.CongestionController;
+import kcp.output.KcpOutput;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 
@@ -22,6 +24,12 @@ public interface IKcpProtocol {
 
     /**
      * 合并接收到的数据包
+     *
+     * <p>单分片消息直接返回分片本身；多分片消息默认拷贝到一个新分配的缓冲区，
+     * 开启 {@link #setCompositeRecv(boolean)} 后返回由各分片组成的 {@link io.netty.buffer.CompositeByteBuf}。</p>
+     *
+     * <p>流模式下没有消息边界，一次返回接收队列中所有连续的字节。</p>
+     *
      * @return 合并后的ByteBuf
      */
     ByteBuf mergeRecv();
@@ -33,13 +41,15 @@ public interface IKcpProtocol {
      * <p>2. 整理消息接收队列，判断下一个包是否已经收到，收到放入rcvQueue</p>
      * <p>3. 判断接收窗口剩余是否改变，如果改变记录需要通知</p>
      *
+     * <p>流模式下取走接收队列中所有的分片。</p>
+     *
      * @param bufList 接收缓冲区列表
      * @return 接收的数据大小
      */
     int recv(List<ByteBuf> bufList);
 
     /**
-     * 检查接收队列中下一个完整消息的大小
+     * 检查接收队列中下一个完整消息的大小，流模式下为接收队列中所有字节的长度
      * @return -1 表示没有完整包，>0 表示一个完整包的字节长度
      */
     int peekSize();
@@ -57,6 +67,85 @@ public interface IKcpProtocol {
      */
     int send(ByteBuf buf);
 
+    /**
+     * 发送数据到指定优先级的发送队列，流模式下忽略优先级
+     * @param buf 要发送的数据缓冲区
+     * @param lane 优先级车道，0最高，超出车道数时使用优先级最低的车道
+     * @return 发送的数据大小
+     */
+    int send(ByteBuf buf, int lane);
+
+    /**
+     * 发送一条带过期时间的消息，到期时还没有进入发送缓冲区的消息在flush时整条丢弃，
+     * 已经发出过分片的消息不受影响。流模式下忽略过期时间
+     * @param buf 要发送的数据缓冲区
+     * @param lane 优先级车道
+     * @param deadline 过期时间(和flush的current同一时钟的毫秒时间戳)，0表示不过期
+     * @return 发送的数据大小
+     */
+    int send(ByteBuf buf, int lane, long deadline);
+
+    /**
+     * 发送一条需要跟踪结果的消息，最后一个分片被累计确认时completion以ACKED完成，
+     * 过期丢弃、消息不合法或者释放时以对应的状态完成
+     * @param buf 要发送的数据缓冲区
+     * @param lane 优先级车道
+     * @param deadline 过期时间，0表示不过期
+     * @param completion 发送结果，null表示不跟踪
+     * @return 发送的数据大小
+     */
+    int send(ByteBuf buf, int lane, long deadline, WriteCompletion completion);
+
+    /**
+     * 设置发送队列的优先级车道，只能在发送队列为空时调用
+     *
+     * <p>消息按车道进入发送缓冲区，一条消息的分片不会被其他消息插入，
+     * 发送窗口和拥塞窗口由所有车道共享。</p>
+     *
+     * @param lanes 车道数，1表示不区分优先级
+     * @param weights 加权轮询时每个车道每轮可以移入的分片数，null表示严格优先级
+     */
+    void setPriorityLanes(int lanes, int[] weights);
+
+    /**
+     * 获取优先级车道数
+     * @return 车道数
+     */
+    int getPriorityLanes();
+
+    /**
+     * 获取发送队列的车道调度
+     * @return null表示只有一个车道
+     */
+    LaneScheduler getLaneScheduler();
+
+    /**
+     * 获取在发送队列中过期、没有发送过就被丢弃的消息数
+     * @return 消息数
+     */
+    long getExpiredMessages();
+
+    /**
+     * 获取在发送队列中过期被丢弃的字节数
+     * @return 字节数
+     */
+    long getExpiredBytes();
+
+    /**
+     * 不可靠发送，数据单独成包立即交给输出，不进入发送缓冲区，不确认、不重传也不保证顺序
+     *
+     * @param buf 要发送的数据，不持有引用
+     * @param current 当前时间戳（毫秒）
+     * @return 0表示成功，-2表示超过MSS
+     */
+    int sendUnreliable(ByteBuf buf, long current);
+
+    /**
+     * 取出一条收到的不可靠消息
+     * @return 收到的消息，调用方负责释放，null表示没有
+     */
+    ByteBuf recvUnreliable();
+
     /**
      * 输入数据到KCP协议栈
      *
@@ -67,6 +156,18 @@ public interface IKcpProtocol {
      */
     int input(ByteBuf data, boolean regular, long current);
 
+    /**
+     * 批量输入多个数据报
+     *
+     * <p>先解析完所有数据报，再统一推进una、排序去重ACK列表、更新快速重传计数和拥塞窗口，
+     * 整批最多触发一次flush。数据报的读索引会被推进，但不会被释放。</p>
+     *
+     * @param datagrams 接收到的数据报，都视为常规数据包
+     * @param current 当前时间戳（毫秒）
+     * @return 0 全部成功，否则为第一个出错数据报的错误码，出错的数据报不影响其余数据报
+     */
+    int input(List<ByteBuf> datagrams, long current);
+
     /**
      * 获取当前时间戳
      * @param now 当前时间戳
@@ -81,7 +182,7 @@ public interface IKcpProtocol {
      *
      * @param ackOnly 是否只发送ACK包
      * @param current 当前时间戳（毫秒）
-     * @return 下次更新时间
+     * @return 距离下次刷新的毫秒数
      */
     long flush(boolean ackOnly, long current);
 
@@ -99,6 +200,7 @@ public interface IKcpProtocol {
      *
      * <p>确定何时应该调用ikcp_update，返回距离下次更新的毫秒数。</p>
      * <p>用于减少不必要的ikcp_update调用，优化处理大量KCP连接的场景</p>
+     * <p>开启节奏控制或RACK/TLP时，被推迟的分片、乱序判定和尾部探测的时间也计算在内。</p>
      *
      * @param current 当前时间戳（毫秒）
      * @return 下次更新需要等待的毫秒数
@@ -118,6 +220,12 @@ public interface IKcpProtocol {
      */
     int setMtu(int mtu);
 
+    /**
+     * 获取单个分片可携带的最大数据长度
+     * @return MSS大小
+     */
+    int getMss();
+
     /**
      * 获取更新间隔
      * @return 更新间隔（毫秒）
@@ -130,7 +238,7 @@ public interface IKcpProtocol {
      * @param nodelay 是否启用无延迟模式
      * @param interval 更新间隔
      * @param resend 快速重传次数
-     * @param nc 是否关闭拥塞控制
+     * @param nc 是否关闭拥塞控制，关闭后不再咨询 {@link CongestionController}
      * @return 设置结果
      */
     int nodelay(boolean nodelay, int interval, int resend, boolean nc);
@@ -207,6 +315,30 @@ public interface IKcpProtocol {
      */
     void setRcvWnd(int rcvWnd);
 
+    /**
+     * 获取当前接收窗口，开启自动调整时会在配置值和上限之间变化
+     * @return 接收窗口大小
+     */
+    int getRcvWnd();
+
+    /**
+     * 获取接收窗口自动调整的上限
+     * @return 上限，0表示未开启
+     */
+    int getMaxRcvWnd();
+
+    /**
+     * 设置接收窗口自动调整的上限，开启后按 交付速率×RTT 在 {@link #setRcvWnd(int)} 配置的窗口和上限之间调整
+     * @param maxRcvWnd 上限，0表示关闭并恢复配置的窗口
+     */
+    void setMaxRcvWnd(int maxRcvWnd);
+
+    /**
+     * 获取接收窗口自动调整及其统计
+     * @return 接收窗口调整器
+     */
+    RcvWndTuner getRcvWndTuner();
+
     /**
      * 设置ACK掩码大小
      * @param ackMaskSize ACK掩码大小
@@ -219,6 +351,74 @@ public interface IKcpProtocol {
      */
     void setReserved(int reserved);
 
+    /**
+     * 获取拥塞控制器
+     * @return 拥塞控制器
+     */
+    CongestionController getCongestionController();
+
+    /**
+     * 设置拥塞控制器，默认为原生KCP拥塞控制
+     * @param congestionController 拥塞控制器
+     */
+    void setCongestionController(CongestionController congestionController);
+
+    /**
+     * 是否开启发送节奏控制
+     * @return true 如果开启
+     */
+    boolean isPacing();
+
+    /**
+     * 设置发送节奏控制，开启后flush按拥塞控制器给出的速率(没有时按 窗口/RTT 推导)分批发送数据分片
+     * @param pacing 是否开启
+     */
+    void setPacing(boolean pacing);
+
+    /**
+     * 获取发送节奏控制及其统计
+     * @return 节奏控制器
+     */
+    KcpPacer getPacer();
+
+    /**
+     * 是否开启RACK/TLP丢包检测
+     * @return true 如果开启
+     */
+    boolean isRackTlp();
+
+    /**
+     * 设置RACK/TLP丢包检测，开启后按时间判断丢包并对一批数据的尾部发送探测，{@code fastresend} 不再生效
+     * @param rackTlp 是否开启
+     */
+    void setRackTlp(boolean rackTlp);
+
+    /**
+     * 获取丢包检测统计和RTT直方图，RTT直方图不论是否开启RACK/TLP都会记录
+     * @return 丢包检测器
+     */
+    KcpLossDetector getLossDetector();
+
+    /**
+     * 是否把连续sn的ACK合并成区间发送
+     * @return true 如果开启
+     */
+    boolean isAckRange();
+
+    /**
+     * 设置区间ACK，开启后一次flush中sn连续的ACK合并成一个(起始sn，个数，最新ts)记录，
+     * 同一个interval内多次input产生的ACK也留到下一次flush一起发送(ackNoDelay开启时除外)。
+     * 解析总是支持，只有远端也是支持区间ACK的版本时才能开启
+     * @param ackRange 是否开启
+     */
+    void setAckRange(boolean ackRange);
+
+    /**
+     * 获取拥塞控制器给出的发送速率
+     * @return 字节/秒，0表示不限速(包括关闭拥塞控制时)
+     */
+    long getPacingRate();
+
     /**
      * 获取发送窗口大小
      * @return 发送窗口大小
@@ -266,4 +466,17 @@ public interface IKcpProtocol {
      * @param ackNoDelay 是否启用ACK无延迟
      */
     void setAckNoDelay(boolean ackNoDelay);
+
+    /**
+     * 多分片消息是否以CompositeByteBuf返回
+     * @return true 如果开启零拷贝接收
+     */
+    boolean isCompositeRecv();
+
+    /**
+     * 设置零拷贝接收，开启后 {@link #mergeRecv()} 不再拷贝分片，而是把分片(收到的数据报的切片)组合成CompositeByteBuf返回。
+     * 应用持有消息期间会一直引用原数据报
+     * @param compositeRecv 是否开启
+     */
+    void setCompositeRecv(boolean compositeRecv);
 }
\ No newline at end of file
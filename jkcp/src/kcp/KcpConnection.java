@@ -2,14 +2,18 @@ package kcp.kcp;
 
 import kcp.fec.FecHandler;
 import kcp.listener.KcpListener;
+import kcp.threading.EventTask;
 import kcp.threading.IMessageExecutor;
+import kcp.threading.ITask;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import org.jctools.queues.MpscLinkedQueue;
 
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 
 /**
  * KCP连接包装类
@@ -28,6 +32,26 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class KcpConnection {
 
+    /**
+     * 读缓冲区有新的数据报
+     */
+    public static final int EVENT_READ = 1;
+
+    /**
+     * 写缓冲区有新的消息
+     */
+    public static final int EVENT_WRITE = 1 << 1;
+
+    /**
+     * 定时器到期，检查超时并按时间flush
+     */
+    public static final int EVENT_UPDATE = 1 << 2;
+
+    /**
+     * BLOCK策略下每次等待写任务腾出空间的时间
+     */
+    private static final long BLOCK_PARK_NANOS = 100_000;
+
     /**
      * KCP协议实例
      */
@@ -61,13 +85,28 @@ public class KcpConnection {
     /**
      * 写缓冲区
      */
-    private final Queue<ByteBuf> writeBuffer;
+    private final Queue<PendingWrite> writeBuffer;
 
     /**
      * 读缓冲区
      */
     private final Queue<ByteBuf> readBuffer;
 
+    /**
+     * 按优先级分开的写缓冲区，writeBuffers[0]就是writeBuffer，null表示只有一个车道
+     */
+    private Queue<PendingWrite>[] writeBuffers;
+
+    /**
+     * 决定写任务下一条消息从哪个写缓冲区取出
+     */
+    private LaneScheduler writeScheduler;
+
+    /**
+     * 不可靠消息的写缓冲区
+     */
+    private final Queue<ByteBuf> unreliableWriteBuffer = new MpscLinkedQueue<>();
+
     /**
      * 消息执行器
      */
@@ -89,19 +128,14 @@ public class KcpConnection {
     private final Object channelManager;
 
     /**
-     * 写处理状态
+     * 连接的事件任务，读、写和定时事件都合并到这一个任务里执行
      */
-    private final AtomicBoolean writeProcessing = new AtomicBoolean(false);
+    private volatile EventTask eventTask;
 
     /**
-     * 读处理状态
+     * 读缓冲区中排队的字节数
      */
-    private final AtomicBoolean readProcessing = new AtomicBoolean(false);
-
-    /**
-     * 读缓冲区增量计数器
-     */
-    private final AtomicInteger readBufferIncr = new AtomicInteger(-1);
+    private final AtomicLong pendingReadBytes = new AtomicLong();
 
     /**
      * 是否控制写缓冲区大小
@@ -114,21 +148,88 @@ public class KcpConnection {
     private boolean controlReadBufferSize = false;
 
     /**
-     * 写缓冲区最大大小
+     * 写缓冲区所有车道排队的字节数上限
      */
     private int writeBufferSize = 0;
 
     /**
-     * 读缓冲区最大大小
+     * 读缓冲区排队的字节数上限
      */
     private int readBufferSize = 0;
 
+    /**
+     * 读写缓冲区超过上限时的处理策略
+     */
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.REJECT_NEW;
+
+    /**
+     * BLOCK策略最多等待的纳秒数
+     */
+    private volatile long overflowBlockNanos;
+
+    /**
+     * 写缓冲区溢出时拒绝或者丢弃的消息数
+     */
+    private final AtomicLong writeOverflowDropped = new AtomicLong();
+
+    /**
+     * 读缓冲区溢出时拒绝或者丢弃的数据报数
+     */
+    private final AtomicLong readOverflowDropped = new AtomicLong();
+
+    /**
+     * 小消息合并，null表示不合并
+     */
+    private MessageCoalescer coalescer;
+
+    /**
+     * 逻辑流复用，null表示不复用
+     */
+    private KcpStreamMux streamMux;
+
+    /**
+     * 写缓冲区的按键合并，null表示未开启
+     */
+    private volatile WriteConflater conflater;
+
     /**
      * 用户对象
      */
     private Object user;
 
-    public KcpConnection(IKcpProtocol kcp, Queue<ByteBuf> writeBuffer, Queue<ByteBuf> readBuffer,
+    /**
+     * 消息默认的存活时间(毫秒)，0表示不过期
+     */
+    private long messageTtl;
+
+    /**
+     * 在写缓冲区中过期被丢弃的消息数，只由写任务修改
+     */
+    private volatile long writeBufferExpired;
+
+    /**
+     * 写缓冲区中所有车道排队的字节数
+     */
+    private final AtomicLong pendingWriteBytes = new AtomicLong();
+
+    /**
+     * 排队字节数超过高水位时变为不可写，0表示不检查水位
+     */
+    private volatile int writeBufferHighWaterMark;
+
+    /**
+     * 排队字节数降到低水位及以下时恢复可写
+     */
+    private volatile int writeBufferLowWaterMark;
+
+    private volatile boolean writable = true;
+
+    /**
+     * 最后一次通知监听器的可写状态，只由连接的执行线程访问
+     */
+    private boolean notifiedWritable = true;
+
+    public KcpConnection(IKcpProtocol kcp, Queue<PendingWrite> writeBuffer, Queue<ByteBuf> readBuffer,
                         IMessageExecutor messageExecutor, KcpListener listener,
                         long timeoutMillis, Object channelManager) {
         this.kcp = kcp;
@@ -147,21 +248,200 @@ public class KcpConnection {
      * @return 发送是否成功
      */
     public boolean write(ByteBuf byteBuf) {
+        return write(byteBuf, 0);
+    }
+
+    /**
+     * 按优先级发送数据
+     *
+     * @param byteBuf 要发送的数据
+     * @param priority 优先级车道，0最高，超出车道数时使用优先级最低的车道
+     * @return 发送是否成功
+     * @throws IllegalArgumentException priority小于0
+     */
+    public boolean write(ByteBuf byteBuf, int priority) {
+        long ttl = messageTtl;
+        return write(byteBuf, priority, ttl > 0 ? System.currentTimeMillis() + ttl : 0);
+    }
+
+    /**
+     * 发送一条带过期时间的消息
+     *
+     * <p>到期时还在写缓冲区或者KCP发送队列中、一个分片都没有发出过的消息会被丢弃，
+     * 已经开始发送的消息照常可靠送达。适合很快失去意义的数据，避免拥塞时队列里积压过期消息。</p>
+     *
+     * @param byteBuf 要发送的数据
+     * @param priority 优先级车道
+     * @param deadline 过期时间(System.currentTimeMillis)，0表示不过期
+     * @return 发送是否成功
+     * @throws IllegalArgumentException priority小于0
+     */
+    public boolean write(ByteBuf byteBuf, int priority, long deadline) {
+        if (!offerWrite(byteBuf, priority, deadline, null)) {
+            return false;
+        }
+        notifyWriteEvent();
+        return true;
+    }
+
+    /**
+     * 发送数据并跟踪结果
+     *
+     * @param byteBuf 要发送的数据
+     * @return 发送结果
+     * @see #writeAndTrack(ByteBuf, int, Object)
+     */
+    public WriteCompletion writeAndTrack(ByteBuf byteBuf) {
+        return writeAndTrack(byteBuf, 0, null);
+    }
+
+    /**
+     * 发送数据到指定优先级车道并跟踪结果
+     *
+     * <p>消息的最后一个分片被对端累计确认后，返回的对象以 {@link WriteCompletion#ACKED} 完成并回调
+     * {@link KcpListener#handleWriteComplete}，不需要应用层再做确认和重传。过期、溢出被丢弃或者连接关闭时以对应的状态完成，
+     * 写入被拒绝时在调用线程中立即完成。开启小消息合并时需要跟踪的消息单独成帧。</p>
+     *
+     * @param byteBuf 要发送的数据
+     * @param priority 优先级车道
+     * @param attachment 附件，完成时通过 {@link WriteCompletion#getAttachment()} 取回
+     * @return 发送结果
+     * @throws IllegalArgumentException priority小于0
+     */
+    public WriteCompletion writeAndTrack(ByteBuf byteBuf, int priority, Object attachment) {
+        WriteCompletion completion = new WriteCompletion(this, attachment);
+        long ttl = messageTtl;
+        if (offerWrite(byteBuf, priority, ttl > 0 ? System.currentTimeMillis() + ttl : 0, completion)) {
+            notifyWriteEvent();
+        } else {
+            completion.complete(active ? WriteCompletion.DROPPED : WriteCompletion.CLOSED);
+        }
+        return completion;
+    }
+
+    /**
+     * 批量发送，所有消息写入写缓冲区后只触发一次写任务
+     *
+     * @param byteBufs 要发送的数据，引用全部转移给连接，被拒绝的消息会被释放
+     * @return 写入成功的消息数
+     */
+    public int writeAll(List<ByteBuf> byteBufs) {
+        long ttl = messageTtl;
+        long deadline = ttl > 0 ? System.currentTimeMillis() + ttl : 0;
+        int written = 0;
+        for (int i = 0, n = byteBufs.size(); i < n; i++) {
+            if (offerWrite(byteBufs.get(i), 0, deadline, null)) {
+                written++;
+            }
+        }
+        if (written > 0) {
+            notifyWriteEvent();
+        }
+        return written;
+    }
+
+    /**
+     * 按写缓冲区上限和溢出策略放入写缓冲区，不触发写任务
+     *
+     * @return false 如果连接已经关闭或者被拒绝，byteBuf会被释放
+     */
+    private boolean offerWrite(ByteBuf byteBuf, int priority, long deadline, WriteCompletion completion) {
+        checkPriority(byteBuf, priority);
         if (!active) {
             byteBuf.release();
             return false;
         }
 
-        if (controlWriteBufferSize && writeBufferSize > 0) {
-            int currentSize = writeBuffer.size();
-            if (currentSize >= writeBufferSize) {
-                // TODO: 这里做的不对 应该丢弃队列最早的那个消息包  这样子丢弃有一定的概率会卡死 以后优化
-                byteBuf.release();
-                return false;
-            }
+        // 先计数再入队 写任务取走后扣除时不会出现负数
+        int size = byteBuf.readableBytes();
+        if (!controlWriteBufferSize) {
+            incrementPendingWriteBytes(size);
+        } else if (!reserveWrite(size)) {
+            byteBuf.release();
+            return false;
         }
+        getWriteBuffer(priority).offer(PendingWrite.newInstance(byteBuf, deadline, completion));
+        return true;
+    }
 
-        writeBuffer.offer(byteBuf);
+    /**
+     * 在计数和入队之前检查车道，不合法时释放byteBuf
+     */
+    private static void checkPriority(ByteBuf byteBuf, int priority) {
+        if (priority < 0) {
+            byteBuf.release();
+            throw new IllegalArgumentException("priority: " + priority + " (expected: >= 0)");
+        }
+    }
+
+    /**
+     * 按键合并发送，适合同步实体最新状态的数据
+     *
+     * <p>同一个键的上一条消息还在写缓冲区中没有被写任务取走时，直接替换它并沿用它的位置和车道，
+     * 旧消息被丢弃。已经进入KCP的消息不会被替换。</p>
+     *
+     * @param key 键，比如实体ID
+     * @param byteBuf 要发送的数据
+     * @return 发送是否成功
+     * @throws IllegalStateException 没有开启按键合并
+     */
+    public boolean writeConflated(long key, ByteBuf byteBuf) {
+        return writeConflated(key, byteBuf, 0);
+    }
+
+    /**
+     * 按键合并发送到指定优先级车道
+     *
+     * @param key 键，比如实体ID
+     * @param byteBuf 要发送的数据
+     * @param priority 优先级车道，替换排队中的消息时沿用它的车道
+     * @return 发送是否成功
+     * @throws IllegalStateException 没有开启按键合并
+     * @throws IllegalArgumentException priority小于0
+     */
+    public boolean writeConflated(long key, ByteBuf byteBuf, int priority) {
+        WriteConflater conflater = this.conflater;
+        if (conflater == null) {
+            byteBuf.release();
+            throw new IllegalStateException("write conflation is not enabled");
+        }
+        checkPriority(byteBuf, priority);
+        if (!active) {
+            byteBuf.release();
+            return false;
+        }
+        long ttl = messageTtl;
+        long deadline = ttl > 0 ? System.currentTimeMillis() + ttl : 0;
+        OverflowPolicy policy = overflowPolicy;
+        // 丢弃最早的消息时先接受 由写任务处理
+        int capacity = controlWriteBufferSize && policy != OverflowPolicy.DROP_OLDEST ? writeBufferSize : 0;
+        Queue<PendingWrite> queue = getWriteBuffer(priority);
+        if (!conflater.offer(key, byteBuf, deadline, queue, pendingWriteBytes, capacity)
+                && !(policy == OverflowPolicy.BLOCK
+                && awaitSpace(() -> conflater.offer(key, byteBuf, deadline, queue, pendingWriteBytes, capacity)))) {
+            byteBuf.release();
+            onWriteOverflow(policy);
+            return false;
+        }
+        updateWritability(pendingWriteBytes.get());
+        notifyWriteEvent();
+        return true;
+    }
+
+    /**
+     * 不可靠发送，不进入发送缓冲区，不确认、不重传也不保证顺序，
+     * 适合过期很快的数据(比如位置同步)。和可靠消息共用socket、conv以及CRC/FEC处理，
+     * 对端由 {@link KcpListener#handleReceiveUnreliable} 接收
+     *
+     * @param byteBuf 要发送的数据，不能超过MSS
+     * @return false 如果连接已经关闭或者超过MSS，byteBuf会被释放
+     */
+    public boolean writeUnreliable(ByteBuf byteBuf) {
+        if (!active || byteBuf.readableBytes() > kcp.getMss()) {
+            byteBuf.release();
+            return false;
+        }
+        unreliableWriteBuffer.offer(byteBuf);
         notifyWriteEvent();
         return true;
     }
@@ -177,24 +457,58 @@ public class KcpConnection {
             return;
         }
 
-        if (controlReadBufferSize && readBufferSize > 0) {
-            int currentSize = readBufferIncr.getAndUpdate(operand -> {
-                if (operand == 0) {
-                    return operand;
-                }
-                return --operand;
-            });
-            if (currentSize == 0) {
-                // TODO: 这里做的不对 应该丢弃队列最早的那个消息包  这样子丢弃有一定的概率会卡死 以后优化
-                byteBuf.release();
-                return;
-            }
+        int size = byteBuf.readableBytes();
+        if (!controlReadBufferSize) {
+            pendingReadBytes.addAndGet(size);
+        } else if (!reserveRead(size)) {
+            byteBuf.release();
+            return;
         }
-
         readBuffer.offer(byteBuf);
         notifyReadEvent();
     }
 
+    /**
+     * 读任务从读缓冲区取出一个数据报
+     *
+     * @return null表示没有数据
+     */
+    public ByteBuf pollRead() {
+        ByteBuf byteBuf = readBuffer.poll();
+        if (byteBuf != null) {
+            pendingReadBytes.addAndGet(-byteBuf.readableBytes());
+        }
+        return byteBuf;
+    }
+
+    /**
+     * DROP_OLDEST策略下由读任务丢弃读缓冲区中最早的数据报，直到回到上限以内
+     *
+     * @return 丢弃的数据报数
+     */
+    public int dropOverflowReads() {
+        if (!controlReadBufferSize || !dropsOldest(overflowPolicy)) {
+            return 0;
+        }
+        int dropped = 0;
+        ByteBuf byteBuf;
+        while (pendingReadBytes.get() > readBufferSize && (byteBuf = pollRead()) != null) {
+            byteBuf.release();
+            dropped++;
+        }
+        if (dropped > 0) {
+            readOverflowDropped.addAndGet(dropped);
+        }
+        return dropped;
+    }
+
+    /**
+     * 获取读缓冲区中排队的字节数
+     */
+    public long getPendingReadBytes() {
+        return pendingReadBytes.get();
+    }
+
     /**
      * 接收数据
      *
@@ -215,6 +529,84 @@ public class KcpConnection {
         return kcp.send(byteBuf);
     }
 
+    /**
+     * 发送数据到指定优先级车道
+     *
+     * @param byteBuf 要发送的数据
+     * @param lane 优先级车道
+     * @return 发送的数据大小
+     */
+    public int send(ByteBuf byteBuf, int lane) {
+        return kcp.send(byteBuf, lane);
+    }
+
+    /**
+     * 发送一条带过期时间的数据到指定优先级车道
+     *
+     * @param byteBuf 要发送的数据
+     * @param lane 优先级车道
+     * @param deadline 过期时间(System.currentTimeMillis)，0表示不过期
+     * @return 发送的数据大小
+     */
+    public int send(ByteBuf byteBuf, int lane, long deadline) {
+        return kcp.send(byteBuf, lane, deadline);
+    }
+
+    /**
+     * 发送一条需要跟踪结果的数据到指定优先级车道
+     *
+     * @param byteBuf 要发送的数据
+     * @param lane 优先级车道
+     * @param deadline 过期时间(System.currentTimeMillis)，0表示不过期
+     * @param completion 发送结果，null表示不跟踪
+     * @return 发送的数据大小
+     */
+    public int send(ByteBuf byteBuf, int lane, long deadline, WriteCompletion completion) {
+        return kcp.send(byteBuf, lane, deadline, completion);
+    }
+
+    /**
+     * 立即发送一条不可靠消息
+     *
+     * @param byteBuf 要发送的数据，不持有引用
+     * @param current 当前时间戳（毫秒）
+     * @return 0表示成功，-2表示超过MSS
+     */
+    public int sendUnreliable(ByteBuf byteBuf, long current) {
+        return kcp.sendUnreliable(byteBuf, current);
+    }
+
+    /**
+     * 取出一条收到的不可靠消息
+     * @return 调用方负责释放，null表示没有
+     */
+    public ByteBuf recvUnreliable() {
+        return kcp.recvUnreliable();
+    }
+
+    /**
+     * 批量输入数据报，整批最多触发一次flush
+     *
+     * @param datagrams 接收到的数据报，调用方负责释放
+     * @param current 当前时间戳（毫秒）
+     * @return 处理结果
+     */
+    public int input(List<ByteBuf> datagrams, long current) {
+        return kcp.input(datagrams, current);
+    }
+
+    /**
+     * 刷新KCP协议栈并记录下次刷新时间
+     *
+     * @param current 当前时间戳（毫秒）
+     * @return 距离下次刷新的毫秒数
+     */
+    public long flush(long current) {
+        long next = kcp.flush(false, current);
+        tsUpdate = current + next;
+        return next;
+    }
+
     /**
      * 关闭连接
      */
@@ -222,16 +614,32 @@ public class KcpConnection {
         active = false;
 
         // 清理写缓冲区
+        PendingWrite write;
+        for (int i = 0; i < getPriorityLanes(); i++) {
+            while ((write = pollWrite(i)) != null) {
+                write.discard(WriteCompletion.CLOSED);
+            }
+        }
+
         ByteBuf buf;
-        while ((buf = writeBuffer.poll()) != null) {
+
+        // 清理读缓冲区
+        while ((buf = pollRead()) != null) {
             buf.release();
         }
 
-        // 清理读缓冲区
-        while ((buf = readBuffer.poll()) != null) {
+        while ((buf = unreliableWriteBuffer.poll()) != null) {
             buf.release();
         }
 
+        if (coalescer != null) {
+            coalescer.release();
+        }
+
+        if (streamMux != null) {
+            streamMux.release();
+        }
+
         // 释放FEC资源
         if (fecEncode != null) {
             fecEncode.release();
@@ -301,6 +709,20 @@ public class KcpConnection {
         return messageExecutor;
     }
 
+    /**
+     * 获取连接的事件任务
+     */
+    public EventTask getEventTask() {
+        return eventTask;
+    }
+
+    /**
+     * 设置连接的事件任务，写入和收包通过它通知执行线程，在连接开始收发之前设置
+     */
+    public void setEventTask(EventTask eventTask) {
+        this.eventTask = eventTask;
+    }
+
     /**
      * 是否活跃
      */
@@ -322,6 +744,329 @@ public class KcpConnection {
         return timeoutMillis;
     }
 
+    /**
+     * 获取下次刷新时间
+     */
+    public long getTsUpdate() {
+        return tsUpdate;
+    }
+
+    /**
+     * 设置下次刷新时间
+     */
+    public void setTsUpdate(long tsUpdate) {
+        this.tsUpdate = tsUpdate;
+    }
+
+    /**
+     * 设置优先级车道，写缓冲区和KCP发送队列都按车道分开，发送窗口和拥塞窗口共享，只能在发送数据之前调用
+     *
+     * @param lanes 车道数，1表示不区分优先级
+     * @param weights 加权轮询的权重，null表示严格优先级
+     */
+    @SuppressWarnings("unchecked")
+    public void setPriorityLanes(int lanes, int[] weights) {
+        LaneScheduler scheduler = new LaneScheduler(lanes, weights);
+        kcp.setPriorityLanes(lanes, weights);
+        if (lanes == 1) {
+            writeBuffers = null;
+            writeScheduler = null;
+            return;
+        }
+        Queue<PendingWrite>[] queues = new Queue[lanes];
+        queues[0] = writeBuffer;
+        for (int i = 1; i < lanes; i++) {
+            queues[i] = new MpscLinkedQueue<>();
+        }
+        writeBuffers = queues;
+        writeScheduler = scheduler;
+    }
+
+    /**
+     * 获取优先级车道数
+     */
+    public int getPriorityLanes() {
+        return writeBuffers == null ? 1 : writeBuffers.length;
+    }
+
+    /**
+     * 获取指定车道的写缓冲区
+     */
+    public Queue<PendingWrite> getWriteBuffer(int lane) {
+        Queue<PendingWrite>[] queues = writeBuffers;
+        return queues == null ? writeBuffer : queues[Math.min(lane, queues.length - 1)];
+    }
+
+    /**
+     * 从指定车道的写缓冲区取出一条消息，合并消息取出后不再被替换
+     *
+     * @return null表示没有消息
+     */
+    public PendingWrite pollWrite(int lane) {
+        PendingWrite write = getWriteBuffer(lane).poll();
+        WriteConflater conflater = this.conflater;
+        if (write == null) {
+            return null;
+        }
+        if (write.isKeyed()) {
+            if (conflater != null) {
+                conflater.detach(write);
+            } else {
+                write.detach();
+            }
+        }
+        incrementPendingWriteBytes(-write.getData().readableBytes());
+        return write;
+    }
+
+    /**
+     * DROP_OLDEST策略下由写任务丢弃写缓冲区中最早的消息，直到回到上限以内，优先级最低的车道先丢弃
+     *
+     * @return 丢弃的消息数
+     */
+    public int dropOverflowWrites() {
+        if (!controlWriteBufferSize || overflowPolicy != OverflowPolicy.DROP_OLDEST) {
+            return 0;
+        }
+        int dropped = 0;
+        for (int lane = getPriorityLanes() - 1; lane >= 0; lane--) {
+            PendingWrite write;
+            while (pendingWriteBytes.get() > writeBufferSize && (write = pollWrite(lane)) != null) {
+                write.discard(WriteCompletion.DROPPED);
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            writeOverflowDropped.addAndGet(dropped);
+        }
+        return dropped;
+    }
+
+    /**
+     * 写缓冲区是否可写
+     *
+     * <p>排队的字节数超过高水位后返回false，直到写任务把它取到低水位及以下。不可写时写入仍然会被接受，
+     * 生产者应该暂停写入，等待 {@link KcpListener#onWritabilityChanged} 通知后再继续。没有设置水位时总是返回true。</p>
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * 获取写缓冲区中排队的字节数
+     */
+    public long getPendingWriteBytes() {
+        return pendingWriteBytes.get();
+    }
+
+    /**
+     * 设置写缓冲区的高低水位
+     *
+     * @param low 低水位(字节)
+     * @param high 高水位(字节)，0表示不检查水位
+     */
+    public void setWriteBufferWaterMark(int low, int high) {
+        if (high < 0 || low < 0 || low > high) {
+            throw new IllegalArgumentException("low: " + low + ", high: " + high + " (expected: 0 <= low <= high)");
+        }
+        this.writeBufferLowWaterMark = low;
+        this.writeBufferHighWaterMark = high;
+        updateWritability(pendingWriteBytes.get());
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    /**
+     * 可写状态和上次通知的不同时回调监听器，由写任务和定时任务在连接的执行线程中调用
+     */
+    public void fireWritabilityChanged() {
+        boolean writable = this.writable;
+        if (writable == notifiedWritable) {
+            return;
+        }
+        notifiedWritable = writable;
+        if (listener != null) {
+            listener.onWritabilityChanged(this);
+        }
+    }
+
+    /**
+     * 写任务选择下一条消息所在的车道，并扣除该车道本轮的额度
+     *
+     * @return 车道编号，-1表示所有写缓冲区都为空
+     */
+    public int nextWriteLane() {
+        Queue<PendingWrite>[] queues = writeBuffers;
+        if (queues == null) {
+            return writeBuffer.isEmpty() ? -1 : 0;
+        }
+        int mask = 0;
+        for (int i = 0; i < queues.length; i++) {
+            if (!queues[i].isEmpty()) {
+                mask |= 1 << i;
+            }
+        }
+        int lane = writeScheduler.pick(mask);
+        if (lane >= 0) {
+            writeScheduler.consume(lane, 1);
+        }
+        return lane;
+    }
+
+    /**
+     * 是否有等待写任务处理的消息
+     */
+    public boolean hasPendingWrite() {
+        Queue<PendingWrite>[] queues = writeBuffers;
+        if (queues == null) {
+            return !writeBuffer.isEmpty();
+        }
+        for (Queue<PendingWrite> queue : queues) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取消息默认的存活时间(毫秒)
+     */
+    public long getMessageTtl() {
+        return messageTtl;
+    }
+
+    /**
+     * 设置消息默认的存活时间，{@link #write(ByteBuf, int)} 写入的消息超过该时间还没有发出时被丢弃
+     *
+     * @param messageTtl 存活时间(毫秒)，0表示不过期
+     */
+    public void setMessageTtl(long messageTtl) {
+        this.messageTtl = messageTtl;
+    }
+
+    /**
+     * 写任务丢弃一条在写缓冲区中过期的消息
+     */
+    public void dropExpiredWrite(PendingWrite write) {
+        writeBufferExpired++;
+        write.discard(WriteCompletion.EXPIRED);
+    }
+
+    /**
+     * 获取在写缓冲区中过期被丢弃的消息数
+     */
+    public long getWriteBufferExpired() {
+        return writeBufferExpired;
+    }
+
+    /**
+     * 获取过期被丢弃的消息总数，包括写缓冲区和KCP发送队列
+     */
+    public long getExpiredMessages() {
+        return writeBufferExpired + kcp.getExpiredMessages();
+    }
+
+    /**
+     * 获取不可靠消息的写缓冲区
+     */
+    public Queue<ByteBuf> getUnreliableWriteBuffer() {
+        return unreliableWriteBuffer;
+    }
+
+    /**
+     * 获取发送节奏控制统计
+     */
+    public KcpPacer getPacer() {
+        return kcp.getPacer();
+    }
+
+    /**
+     * 获取丢包检测统计
+     */
+    public KcpLossDetector getLossDetector() {
+        return kcp.getLossDetector();
+    }
+
+    /**
+     * 获取RTT直方图
+     */
+    public RttHistogram getRttHistogram() {
+        return kcp.getLossDetector().getRttHistogram();
+    }
+
+    /**
+     * 获取接收窗口自动调整统计
+     */
+    public RcvWndTuner getRcvWndTuner() {
+        return kcp.getRcvWndTuner();
+    }
+
+    /**
+     * 获取小消息合并器
+     * @return null表示未开启
+     */
+    public MessageCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * 设置小消息合并器，开启后发出的消息和收到的消息都按合并格式处理，两端必须一致
+     */
+    public void setCoalescer(MessageCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * 获取写缓冲区的按键合并
+     * @return null表示未开启
+     */
+    public WriteConflater getConflater() {
+        return conflater;
+    }
+
+    /**
+     * 开启或关闭写缓冲区的按键合并，只能在写入合并消息之前调用
+     */
+    public void setWriteConflation(boolean enabled) {
+        this.conflater = enabled ? new WriteConflater() : null;
+    }
+
+    /**
+     * 打开一个逻辑流
+     *
+     * @param id 流ID
+     * @return 新打开的流
+     * @throws IllegalStateException 没有开启流复用、该ID的流已经打开或者连接已经关闭
+     */
+    public KcpStream openStream(int id) {
+        if (streamMux == null) {
+            throw new IllegalStateException("stream multiplexing is not enabled");
+        }
+        return streamMux.openStream(id);
+    }
+
+    /**
+     * 获取逻辑流复用
+     * @return null表示未开启
+     */
+    public KcpStreamMux getStreamMux() {
+        return streamMux;
+    }
+
+    /**
+     * 设置逻辑流复用，开启后收到的消息都按流的帧格式处理，两端必须一致
+     */
+    public void setStreamMux(KcpStreamMux streamMux) {
+        this.streamMux = streamMux;
+    }
+
     /**
      * 是否启用快速刷新
      */
@@ -352,6 +1097,8 @@ public class KcpConnection {
 
     /**
      * 设置写缓冲区控制
+     *
+     * @param size 所有车道排队的字节数上限，小于等于0表示不限制
      */
     public void setWriteBufferControl(int size) {
         this.controlWriteBufferSize = size > 0;
@@ -360,19 +1107,187 @@ public class KcpConnection {
 
     /**
      * 设置读缓冲区控制
+     *
+     * @param size 排队的字节数上限，小于等于0表示不限制
      */
     public void setReadBufferControl(int size) {
         this.controlReadBufferSize = size > 0;
         this.readBufferSize = size;
-        this.readBufferIncr.set(size);
+    }
+
+    /**
+     * 设置读写缓冲区超过上限时的处理策略
+     *
+     * @param policy 处理策略
+     * @param blockMillis BLOCK策略最多等待的毫秒数
+     */
+    public void setOverflowPolicy(OverflowPolicy policy, long blockMillis) {
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        this.overflowBlockNanos = blockMillis * 1_000_000;
+        this.overflowPolicy = policy;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * 获取写缓冲区溢出时拒绝或者丢弃的消息数
+     */
+    public long getWriteOverflowDropped() {
+        return writeOverflowDropped.get();
+    }
+
+    /**
+     * 获取读缓冲区溢出时拒绝或者丢弃的数据报数
+     */
+    public long getReadOverflowDropped() {
+        return readOverflowDropped.get();
+    }
+
+    /**
+     * 在字节数上限内预留空间，缓冲区为空时总是接受，避免超过上限的单条消息永远无法写入
+     *
+     * @return false 如果预留后会超过上限
+     */
+    static boolean tryReserve(AtomicLong counter, long size, long limit) {
+        for (;;) {
+            long current = counter.get();
+            if (current > 0 && current + size > limit) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
     }
 
     /**
      * 通知写事件
      */
     private void notifyWriteEvent() {
-        if (writeProcessing.compareAndSet(false, true)) {
-            // TODO: 实现写任务调度
+        EventTask task = eventTask;
+        if (task != null) {
+            task.signal(EVENT_WRITE);
+        }
+    }
+
+    private boolean reserveWrite(int size) {
+        OverflowPolicy policy = overflowPolicy;
+        boolean reserved;
+        if (policy == OverflowPolicy.DROP_OLDEST) {
+            // 先接受 由写任务丢弃最早的消息 单条超过上限的消息永远放不下
+            reserved = size <= writeBufferSize;
+            if (reserved) {
+                pendingWriteBytes.addAndGet(size);
+            }
+        } else {
+            reserved = tryReserve(pendingWriteBytes, size, writeBufferSize)
+                    || (policy == OverflowPolicy.BLOCK && awaitSpace(() -> tryReserve(pendingWriteBytes, size, writeBufferSize)));
+        }
+        if (!reserved) {
+            onWriteOverflow(policy);
+            return false;
+        }
+        updateWritability(pendingWriteBytes.get());
+        return true;
+    }
+
+    private boolean reserveRead(int size) {
+        OverflowPolicy policy = overflowPolicy;
+        if (dropsOldest(policy)) {
+            if (size <= readBufferSize) {
+                pendingReadBytes.addAndGet(size);
+                return true;
+            }
+        } else if (tryReserve(pendingReadBytes, size, readBufferSize)) {
+            return true;
+        }
+        readOverflowDropped.incrementAndGet();
+        if (policy == OverflowPolicy.CLOSE_CONNECTION) {
+            closeOnOverflow("read buffer overflow");
+        }
+        return false;
+    }
+
+    /**
+     * 读缓冲区由I/O线程写入 不能阻塞 BLOCK按丢弃最早的消息处理
+     */
+    private static boolean dropsOldest(OverflowPolicy policy) {
+        return policy == OverflowPolicy.DROP_OLDEST || policy == OverflowPolicy.BLOCK;
+    }
+
+    private void onWriteOverflow(OverflowPolicy policy) {
+        writeOverflowDropped.incrementAndGet();
+        if (policy == OverflowPolicy.CLOSE_CONNECTION) {
+            closeOnOverflow("write buffer overflow");
+        }
+    }
+
+    /**
+     * BLOCK策略下等待写任务腾出空间
+     *
+     * <p>在连接的执行线程中写入时(比如在handleReceive中回复)不等待，按REJECT_NEW处理：
+     * 写缓冲区只由这个线程取出，等待只会让它和同一个执行器上的其他连接一起停住，最后照样丢弃。</p>
+     *
+     * @return false 如果超时、连接已经关闭或者在执行线程中调用
+     */
+    private boolean awaitSpace(BooleanSupplier attempt) {
+        if (messageExecutor != null && messageExecutor.inExecutorThread()) {
+            return false;
+        }
+        long deadline = System.nanoTime() + overflowBlockNanos;
+        while (active && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            if (attempt.getAsBoolean()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在连接的执行线程中关闭连接，重复触发时只关闭一次
+     */
+    private void closeOnOverflow(String reason) {
+        ITask task = () -> {
+            if (!active) {
+                return;
+            }
+            if (listener != null) {
+                listener.handleException(new IllegalStateException(reason), this);
+            }
+            close();
+        };
+        if (messageExecutor == null) {
+            task.execute();
+        } else {
+            // 不在写入的调用方中间关闭
+            messageExecutor.enqueue(task);
+        }
+    }
+
+    private void incrementPendingWriteBytes(long size) {
+        if (size != 0) {
+            updateWritability(pendingWriteBytes.addAndGet(size));
+        }
+    }
+
+    /**
+     * 按高低水位更新可写状态，写入线程和写任务会同时修改，修改后用最新的字节数再检查一次
+     */
+    private void updateWritability(long bytes) {
+        for (;;) {
+            int high = writeBufferHighWaterMark;
+            boolean current = writable;
+            boolean next = high <= 0 || (current ? bytes <= high : bytes <= writeBufferLowWaterMark);
+            if (next == current) {
+                return;
+            }
+            writable = next;
+            bytes = pendingWriteBytes.get();
         }
     }
 
@@ -380,8 +1295,9 @@ public class KcpConnection {
      * 通知读事件
      */
     private void notifyReadEvent() {
-        if (readProcessing.compareAndSet(false, true)) {
-            // TODO: 实现读任务调度
+        EventTask task = eventTask;
+        if (task != null) {
+            task.signal(EVENT_READ);
         }
     }
 }
\ No newline at end of file
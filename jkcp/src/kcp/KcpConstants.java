@@ -33,6 +33,28 @@ public final class KcpConstants {
      */
     public static final int IKCP_RTO_MAX = 60000;
 
+    // ==================== 拥塞控制相关常量 ====================
+
+    /**
+     * 慢启动阈值初始值
+     */
+    public static final int IKCP_THRESH_INIT = 2;
+
+    /**
+     * 慢启动阈值最小值
+     */
+    public static final int IKCP_THRESH_MIN = 2;
+
+    /**
+     * 窗口探测初始等待时间 (毫秒)
+     */
+    public static final int IKCP_PROBE_INIT = 7000;
+
+    /**
+     * 窗口探测最大等待时间 (毫秒)
+     */
+    public static final int IKCP_PROBE_LIMIT = 120000;
+
     // ==================== 发送窗口相关常量 ====================
 
     /**
@@ -52,6 +74,16 @@ public final class KcpConstants {
      */
     public static final int IKCP_OVERHEAD = 24;
 
+    /**
+     * 默认MTU (字节)
+     */
+    public static final int IKCP_MTU_DEF = 1400;
+
+    /**
+     * 协议头中sn字段的偏移量 (字节)
+     */
+    public static final int IKCP_SN_OFFSET = 12;
+
     /**
      * ACK推送数量
      */
@@ -96,6 +128,16 @@ public final class KcpConstants {
      */
     public static final byte IKCP_CMD_WINS = 84;
 
+    /**
+     * 不可靠数据命令，不进入发送缓冲区，不确认也不重传
+     */
+    public static final byte IKCP_CMD_UNRELIABLE = 85;
+
+    /**
+     * 一个区间ACK最多确认的sn个数，个数减1放在frg字段
+     */
+    public static final int IKCP_ACK_RANGE_MAX = 256;
+
     // ==================== 状态标志常量 ====================
 
     /**
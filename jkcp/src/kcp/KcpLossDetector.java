@@ -0,0 +1,273 @@
+package kcp.kcp;
+
+/**
+ * 基于时间的丢包检测(RACK)和尾部丢包探测(TLP)
+ *
+ * <p>开启后flush不再按 {@code fastresend} 个重复ACK判断丢包：</p>
+ * <ul>
+ *   <li><strong>RACK</strong>：记录被确认的分片中最晚发出的那个的发送时间，比它早发出的分片
+ *   在 RTT+重排窗口 之后仍未确认就认为丢失并立即重传。重排窗口为最小RTT的1/4，
+ *   出现虚假重传(ACK回显的是更早一次发送的时间戳)时按倍数放大，不超过平滑RTT</li>
+ *   <li><strong>TLP</strong>：一批数据的最后几个分片丢失时没有更晚的分片被确认，RACK无法触发。
+ *   发送后超过探测超时(约2倍RTT)仍没有任何ACK且没有新数据可发时，重传最后一个分片，
+ *   它的ACK会让RACK发现前面丢失的分片，而不必等到RTO</li>
+ * </ul>
+ *
+ * <p>同时把每个RTT样本记入 {@link RttHistogram}。</p>
+ *
+ * <p>只由所属连接的执行线程更新，其他线程读取统计时可能看到稍旧的值。</p>
+ *
+ * @since 1.6
+ */
+public final class KcpLossDetector {
+
+    /**
+     * 最小RTT的有效期(毫秒)
+     */
+    static final int MIN_RTT_WINDOW_MS = 10000;
+
+    /**
+     * 重排窗口倍数的上限
+     */
+    static final int MAX_REO_WND_MULT = 8;
+
+    /**
+     * 经过多少次丢包恢复后重排窗口倍数复位
+     */
+    static final int REO_WND_PERSIST = 16;
+
+    static final int MIN_PTO = 10;
+
+    private final RttHistogram rttHistogram = new RttHistogram();
+
+    private int minRtt;
+
+    private int minRttStamp;
+
+    // ==================== RACK ====================
+
+    private boolean hasDelivered;
+
+    /**
+     * 被确认的分片中最晚发出的那个的发送时间
+     */
+    private int xmitTs;
+
+    /**
+     * 发送时间相同时用序号区分先后
+     */
+    private int xmitSn;
+
+    /**
+     * 该分片的RTT
+     */
+    private int rackRtt;
+
+    private int reoWndMult = 1;
+
+    private int recoveries;
+
+    // ==================== TLP ====================
+
+    /**
+     * 最近一次发出新数据或者收到ACK的时间
+     */
+    private int tlpArmTs;
+
+    private boolean tlpArmed;
+
+    private boolean tlpOutstanding;
+
+    // ==================== 统计 ====================
+
+    private long rackRetransmits;
+
+    private long tlpProbes;
+
+    private long spuriousRetransmits;
+
+    /**
+     * 记录一个RTT样本
+     */
+    void onRttSample(int rtt, int cur) {
+        rttHistogram.record(rtt);
+        if (minRtt == 0 || rtt <= minRtt || cur - minRttStamp > MIN_RTT_WINDOW_MS) {
+            minRtt = Math.max(rtt, 1);
+            minRttStamp = cur;
+        }
+    }
+
+    /**
+     * 收到一个分片的ACK
+     *
+     * @param sentTs ACK回显的发送时间
+     * @param sn     分片序号
+     * @param cur    当前时间(毫秒)
+     */
+    void onAck(int sentTs, int sn, int cur) {
+        if (!hasDelivered || sentTs - xmitTs > 0 || (sentTs == xmitTs && sn - xmitSn > 0)) {
+            hasDelivered = true;
+            xmitTs = sentTs;
+            xmitSn = sn;
+            rackRtt = Math.max(cur - sentTs, 0);
+        }
+        tlpArmTs = cur;
+        tlpOutstanding = false;
+    }
+
+    /**
+     * 重传过的分片被确认，但ACK回显的是更早一次发送，说明之前的重传是多余的
+     *
+     * @param reordered 是否因为乱序被提前判定丢失，超时重传造成的不调整重排窗口
+     */
+    void onSpuriousRetransmit(boolean reordered) {
+        spuriousRetransmits++;
+        if (!reordered) {
+            return;
+        }
+        if (reoWndMult < MAX_REO_WND_MULT) {
+            reoWndMult++;
+        }
+        recoveries = 0;
+    }
+
+    /**
+     * 一次flush中发生了RACK重传
+     */
+    void onRecovery() {
+        if (++recoveries >= REO_WND_PERSIST) {
+            reoWndMult = 1;
+            recoveries = 0;
+        }
+    }
+
+    /**
+     * 发出了新数据，重新开始探测计时
+     */
+    void onSendNew(int cur) {
+        tlpArmTs = cur;
+        tlpArmed = true;
+    }
+
+    /**
+     * 发送窗口已经清空
+     */
+    void onIdle() {
+        tlpArmed = false;
+        tlpOutstanding = false;
+    }
+
+    int reoWnd(int srtt) {
+        int wnd = Math.max(minRtt >> 2, 1) * reoWndMult;
+        return srtt > 0 ? Math.min(wnd, srtt) : wnd;
+    }
+
+    /**
+     * 距离判定分片丢失的毫秒数
+     *
+     * @param sentTs 分片最近一次发送的时间
+     * @param sn     分片序号
+     * @param cur    当前时间(毫秒)
+     * @param srtt   平滑RTT
+     * @return 小于等于0表示已经丢失，{@link Integer#MAX_VALUE} 表示还没有更晚发出的分片被确认
+     */
+    int lossDelay(int sentTs, int sn, int cur, int srtt) {
+        if (!hasDelivered || sentTs - xmitTs > 0 || (sentTs == xmitTs && sn - xmitSn >= 0)) {
+            return Integer.MAX_VALUE;
+        }
+        return sentTs + rackRtt + reoWnd(srtt) - cur;
+    }
+
+    void onRackRetransmit() {
+        rackRetransmits++;
+    }
+
+    /**
+     * 探测超时
+     *
+     * @param srtt     平滑RTT，没有样本时为0
+     * @param ackDelay 远端ACK的最大延迟(ackNoDelay关闭时为interval)
+     */
+    int pto(int srtt, int ackDelay) {
+        if (srtt <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(2 * srtt + ackDelay, MIN_PTO);
+    }
+
+    /**
+     * 距离发送探测的毫秒数
+     *
+     * @return 小于等于0表示需要探测，{@link Integer#MAX_VALUE} 表示不需要
+     */
+    int tlpDelay(int cur, int srtt, int ackDelay) {
+        if (!tlpArmed || tlpOutstanding) {
+            return Integer.MAX_VALUE;
+        }
+        int pto = pto(srtt, ackDelay);
+        if (pto == Integer.MAX_VALUE) {
+            return pto;
+        }
+        return tlpArmTs + pto - cur;
+    }
+
+    void onTlpSent() {
+        tlpProbes++;
+        tlpOutstanding = true;
+    }
+
+    /**
+     * RTT直方图
+     */
+    public RttHistogram getRttHistogram() {
+        return rttHistogram;
+    }
+
+    /**
+     * 最近10秒内的最小RTT
+     * @return 毫秒，没有样本时为0
+     */
+    public int getMinRtt() {
+        return minRtt;
+    }
+
+    /**
+     * 当前的重排窗口倍数
+     */
+    public int getReoWndMult() {
+        return reoWndMult;
+    }
+
+    /**
+     * RACK判定丢失后重传的分片数
+     */
+    public long getRackRetransmits() {
+        return rackRetransmits;
+    }
+
+    /**
+     * 发送的尾部探测次数
+     */
+    public long getTlpProbes() {
+        return tlpProbes;
+    }
+
+    /**
+     * 检测到的虚假重传次数
+     */
+    public long getSpuriousRetransmits() {
+        return spuriousRetransmits;
+    }
+
+    @Override
+    public String toString() {
+        return "KcpLossDetector{" +
+                "minRtt=" + minRtt +
+                ", reoWndMult=" + reoWndMult +
+                ", rackRetransmits=" + rackRetransmits +
+                ", tlpProbes=" + tlpProbes +
+                ", spuriousRetransmits=" + spuriousRetransmits +
+                ", " + rttHistogram +
+                '}';
+    }
+}
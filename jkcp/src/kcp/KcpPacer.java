@@ -0,0 +1,199 @@
+package kcp.kcp;
+
+/**
+ * 发送节奏控制(令牌桶)
+ *
+ * <p>开启后flush不再把整个发送窗口一次性交给 {@link kcp.output.KcpOutput}，而是按目标速率发放字节预算，
+ * 预算用完时剩余的数据分片留到下一次flush。flush返回的等待时间会缩短到预算恢复所需的时间，
+ * 由调度任务通过时间轮在间隔内多次触发，从而把一个窗口的数据摊开发送。
+ * {@link KcpProtocol#check(long)} 同样按预算恢复的时间返回，只用check调度的连接也不会多等一个间隔。</p>
+ *
+ * <p>桶的容量为 {@value #QUANTUM_MS} 毫秒的预算且至少 {@value #MIN_QUANTUM_PACKETS} 个MTU，
+ * ACK和窗口探测不受限制。</p>
+ *
+ * <p>计数器只由所属连接的执行线程更新，其他线程读取时可能看到稍旧的值。</p>
+ *
+ * @since 1.6
+ */
+public final class KcpPacer {
+
+    /**
+     * 单次突发允许的时间片(毫秒)
+     */
+    static final int QUANTUM_MS = 1;
+
+    static final int MIN_QUANTUM_PACKETS = 2;
+
+    /**
+     * 由窗口和RTT推导速率时的增益(百分比)，略高于 窗口/RTT 以免节奏控制本身成为瓶颈
+     */
+    static final int DERIVED_RATE_GAIN_PERCENT = 125;
+
+    /**
+     * 目标速率 字节/秒
+     */
+    private long rate;
+
+    /**
+     * 当前可用字节，可以为负(最后一个分片透支)
+     */
+    private long budget;
+
+    private long lastRefill = -1;
+
+    /**
+     * 本次flush推迟的分片数
+     */
+    private int deferred;
+
+    // ==================== 统计 ====================
+
+    private long flushCount;
+
+    private long pacedFlushCount;
+
+    private long deferredSegments;
+
+    private int lastDeferredSegments;
+
+    private long lastRate;
+
+    /**
+     * 拥塞控制器没有给出速率时，按每个RTT发完一个窗口推导目标速率
+     *
+     * @param cwnd 发送窗口(分片)
+     * @param mtu  最大传输单元
+     * @param srtt 平滑RTT(毫秒)，没有样本时为0
+     * @return 字节/秒，无法推导时返回0
+     */
+    static long deriveRate(int cwnd, int mtu, int srtt) {
+        if (srtt <= 0 || cwnd <= 0) {
+            return 0;
+        }
+        return (long) cwnd * mtu * 1000 * DERIVED_RATE_GAIN_PERCENT / 100 / srtt;
+    }
+
+    /**
+     * 开始一次flush，按经过的时间补充预算
+     *
+     * @param current 当前时间(毫秒)
+     * @param rate    目标速率 字节/秒，0表示本次不限速
+     * @param mtu     最大传输单元
+     */
+    void begin(long current, long rate, int mtu) {
+        this.rate = rate;
+        this.deferred = 0;
+        if (rate <= 0) {
+            lastRefill = current;
+            return;
+        }
+        long quantum = Math.max((long) MIN_QUANTUM_PACKETS * mtu, rate * QUANTUM_MS / 1000);
+        if (lastRefill < 0) {
+            budget = quantum;
+        } else {
+            long elapsed = current - lastRefill;
+            if (elapsed > 0) {
+                budget = Math.min(quantum, budget + rate * elapsed / 1000);
+            }
+        }
+        lastRefill = current;
+    }
+
+    /**
+     * 申请发送一个分片
+     *
+     * @param bytes 分片占用的字节(含协议头)
+     * @return 预算不足时返回false，分片应推迟
+     */
+    boolean tryConsume(int bytes) {
+        if (rate <= 0) {
+            return true;
+        }
+        if (budget <= 0) {
+            deferred++;
+            return false;
+        }
+        budget -= bytes;
+        return true;
+    }
+
+    /**
+     * 结束一次flush
+     *
+     * @param interval 没有分片被推迟时的等待时间
+     * @return 距离下次flush的毫秒数
+     */
+    long end(long interval) {
+        flushCount++;
+        lastDeferredSegments = deferred;
+        lastRate = rate;
+        if (deferred == 0) {
+            return interval;
+        }
+        pacedFlushCount++;
+        deferredSegments += deferred;
+        // 预算恢复为正所需的时间
+        long wait = -budget * 1000 / rate + 1;
+        return Math.max(1, Math.min(wait, interval));
+    }
+
+    /**
+     * 预算用完时距离恢复为正还需要的时间，供 {@link KcpProtocol#check(long)} 推迟到期的分片
+     *
+     * @param current 当前时间(毫秒)
+     * @return 0表示现在就可以发送
+     */
+    long waitTime(long current) {
+        if (rate <= 0 || budget > 0) {
+            return 0;
+        }
+        return Math.max(0, lastRefill + (-budget * 1000 / rate + 1) - current);
+    }
+
+    /**
+     * flush总次数
+     */
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * 被节奏控制截断的flush次数
+     */
+    public long getPacedFlushCount() {
+        return pacedFlushCount;
+    }
+
+    /**
+     * 累计被推迟的分片次数，同一分片跨多次flush推迟会重复计数
+     */
+    public long getDeferredSegments() {
+        return deferredSegments;
+    }
+
+    /**
+     * 最近一次flush推迟的分片数
+     */
+    public int getLastDeferredSegments() {
+        return lastDeferredSegments;
+    }
+
+    /**
+     * 最近一次flush使用的目标速率
+     * @return 字节/秒，0表示未限速
+     */
+    public long getLastRate() {
+        return lastRate;
+    }
+
+    @Override
+    public String toString() {
+        return "KcpPacer{" +
+                "flushCount=" + flushCount +
+                ", pacedFlushCount=" + pacedFlushCount +
+                ", deferredSegments=" + deferredSegments +
+                ", lastDeferredSegments=" + lastDeferredSegments +
+                ", lastRate=" + lastRate +
+                '}';
+    }
+}
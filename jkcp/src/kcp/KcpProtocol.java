@@ -1,19 +1,21 @@
 package kcp.kcp;
 
+import kcp.congestion.CongestionController;
+import kcp.congestion.KcpCongestionController;
 import kcp.fec.FecHandler;
 import kcp.output.KcpOutput;
-import kcp.internal.ReItrLinkedList;
-import kcp.internal.ReusableListIterator;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.util.Recycler;
+import io.netty.util.internal.ObjectUtil;
 import io.netty.util.internal.logging.InternalLogger;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 
-import java.util.Iterator;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 
 /**
  * KCP协议的Java实现
@@ -35,6 +37,14 @@ public class KcpProtocol implements IKcpProtocol {
 
     private static final InternalLogger log = InternalLoggerFactory.getInstance(KcpProtocol.class);
 
+    // flush中数据分片的发送原因
+    private static final int SEND_NONE = 0;
+    private static final int SEND_FIRST = 1;
+    private static final int SEND_FAST = 2;
+    private static final int SEND_TIMEOUT = 3;
+    private static final int SEND_RACK = 4;
+    private static final int SEND_TLP = 5;
+
     // ==================== 协议状态 ====================
 
     /**
@@ -45,7 +55,7 @@ public class KcpProtocol implements IKcpProtocol {
     /**
      * 最大传输单元
      */
-    private int mtu = KcpConstants.IKCP_OVERHEAD;
+    private int mtu = KcpConstants.IKCP_MTU_DEF;
 
     /**
      * 最大分片大小
@@ -67,22 +77,122 @@ public class KcpProtocol implements IKcpProtocol {
      */
     private int rcv_wnd = KcpConstants.IKCP_WND_RCV;
 
+    /**
+     * 配置的接收窗口，自动调整时作为下限
+     */
+    private int rcv_wnd_base = KcpConstants.IKCP_WND_RCV;
+
+    /**
+     * 接收窗口自动调整的上限，0表示不调整
+     */
+    private int maxRcvWnd;
+
+    /**
+     * 接收窗口自动调整
+     */
+    private final RcvWndTuner rcvWndTuner = new RcvWndTuner();
+
+    /**
+     * 最近一次通告的接收窗口右沿
+     */
+    private int rcv_wnd_edge;
+
     /**
      * 发送窗口大小
      */
     private int snd_wnd = KcpConstants.IKCP_WND_SND;
 
+    /**
+     * 远端接收窗口大小
+     */
+    private int rmt_wnd = KcpConstants.IKCP_WND_RCV;
+
+    /**
+     * 拥塞控制器，flush时由它决定拥塞窗口
+     */
+    private CongestionController congestionController = new KcpCongestionController();
+
+    /**
+     * 是否关闭拥塞控制
+     */
+    private boolean nocwnd;
+
+    /**
+     * 是否开启发送节奏控制
+     */
+    private boolean pacing;
+
+    /**
+     * 发送节奏控制
+     */
+    private final KcpPacer pacer = new KcpPacer();
+
+    /**
+     * 是否用RACK/TLP代替重复ACK计数判断丢包
+     */
+    private boolean rackTlp;
+
+    /**
+     * 基于时间的丢包检测和RTT直方图
+     */
+    private final KcpLossDetector lossDetector = new KcpLossDetector();
+
+    /**
+     * 是否把连续sn的ACK合并成区间发送，远端必须能解析区间ACK
+     */
+    private boolean ackRange;
+
+    /**
+     * 最近一次发送ACK的时间
+     */
+    private int ts_ack;
+
     // ==================== 发送相关 ====================
 
     /**
      * 发送队列
      */
-    private ReItrLinkedList<Segment> snd_queue = new ReItrLinkedList<>();
+    private final SegmentStore snd_queue = new SegmentStore(KcpConstants.INITIAL_BUFFER_CAPACITY);
+
+    /**
+     * 按优先级分开的发送队列，snd_lanes[0]就是snd_queue，null表示只有一个队列
+     */
+    private SegmentStore[] snd_lanes;
+
+    /**
+     * 决定下一条消息从哪个发送队列进入发送缓冲区
+     */
+    private LaneScheduler laneScheduler;
+
+    /**
+     * 正在移入发送缓冲区的消息所在的队列，一条消息的分片必须连续，-1表示上一条消息已经完整移入
+     */
+    private int snd_lane = -1;
+
+    /**
+     * 没有车道时，上一条移入发送缓冲区的消息还有分片留在发送队列中
+     */
+    private boolean snd_partial;
+
+    /**
+     * 在发送队列中过期、没有发送过就被丢弃的消息数
+     */
+    private long expiredMessages;
+
+    /**
+     * 在发送队列中过期被丢弃的字节数
+     */
+    private long expiredBytes;
+
+    /**
+     * 已经进入发送缓冲区、等待snd_una越过最后一个分片的发送结果，按序号排列
+     */
+    private final ArrayDeque<WriteCompletion> snd_tracked = new ArrayDeque<>();
 
     /**
-     * 发送缓冲区
+     * 发送缓冲区，按 sn - snd_una 寻址
      */
-    private ReItrLinkedList<Segment> snd_buf = new ReItrLinkedList<>();
+    private final SegmentStore snd_buf = new SegmentStore(KcpConstants.INITIAL_BUFFER_CAPACITY);
 
     /**
      * 下一个发送的包序号
@@ -99,12 +209,17 @@ public class KcpProtocol implements IKcpProtocol {
     /**
      * 接收队列
      */
-    private ReItrLinkedList<Segment> rcv_queue = new ReItrLinkedList<>();
+    private final SegmentStore rcv_queue = new SegmentStore(KcpConstants.INITIAL_BUFFER_CAPACITY);
+
+    /**
+     * 接收缓冲区，按 sn - rcv_nxt 寻址
+     */
+    private final SegmentStore rcv_buf = new SegmentStore(KcpConstants.INITIAL_BUFFER_CAPACITY);
 
     /**
-     * 接收缓冲区
+     * 收到的不可靠消息，按到达顺序等待取走
      */
-    private ReItrLinkedList<Segment> rcv_buf = new ReItrLinkedList<>();
+    private final ArrayDeque<ByteBuf> rcv_unreliable = new ArrayDeque<>();
 
     /**
      * 下一个期望接收的包序号
@@ -118,6 +233,11 @@ public class KcpProtocol implements IKcpProtocol {
 
     // ==================== 定时器和重传 ====================
 
+    /**
+     * 协议实例创建时间，协议头中的ts都是相对它的毫秒数
+     */
+    private final long startTicks = System.currentTimeMillis();
+
     /**
      * 当前时间戳
      */
@@ -163,6 +283,36 @@ public class KcpProtocol implements IKcpProtocol {
      */
     private int rx_rto = KcpConstants.IKCP_RTO_DEF;
 
+    /**
+     * 平滑RTT
+     */
+    private int rx_srtt;
+
+    /**
+     * RTT偏差
+     */
+    private int rx_rttval;
+
+    /**
+     * 分片重传多少次后认为连接断开
+     */
+    private int dead_link = KcpConstants.IKCP_DEADLINK;
+
+    /**
+     * 窗口探测标志 {@link KcpConstants#IKCP_ASK_SEND}/{@link KcpConstants#IKCP_ASK_TELL}
+     */
+    private int probe;
+
+    /**
+     * 下次窗口探测时间
+     */
+    private long ts_probe;
+
+    /**
+     * 窗口探测等待时间
+     */
+    private int probe_wait;
+
     /**
      * 重传次数
      */
@@ -203,6 +353,11 @@ public class KcpProtocol implements IKcpProtocol {
      */
     private boolean ackNoDelay;
 
+    /**
+     * 多分片消息是否以CompositeByteBuf返回
+     */
+    private boolean compositeRecv;
+
     // ==================== 协议参数 ====================
 
     /**
@@ -211,10 +366,15 @@ public class KcpProtocol implements IKcpProtocol {
     private int reserved;
 
     /**
-     * ACK掩码大小
+     * ACK掩码大小(位) 0/8/16/32/64，非0时协议头在una之后追加掩码，两端必须一致
      */
     private int ackMaskSize;
 
+    /**
+     * 本次flush携带的选择确认掩码，第i位表示 rcv_nxt+1+i 已收到
+     */
+    private long ackMask;
+
     /**
      * ByteBuf分配器
      */
@@ -294,6 +454,16 @@ public class KcpProtocol implements IKcpProtocol {
      */
     private int ackcachesize;
 
+    /**
+     * 复用的input批处理状态
+     */
+    private final InputBatch inputBatch = new InputBatch();
+
+    /**
+     * ACK排序去重用的临时数组
+     */
+    private long[] ackSortBuf;
+
     // ==================== 对象池 ====================
 
     /**
@@ -308,6 +478,9 @@ public class KcpProtocol implements IKcpProtocol {
 
     /**
      * 数据包内部类
+     *
+     * <p>协议内部的分片已经改为 {@link SegmentStore} 列式存储，不再为每个分片创建该对象。
+     * 保留它作为单个分片的视图，供FEC等需要以对象形式传递分片的地方使用。</p>
      */
     public static class Segment {
         /**
@@ -360,6 +533,16 @@ public class KcpProtocol implements IKcpProtocol {
          */
         public int fastack;
 
+        /**
+         * 超时重传时间
+         */
+        public int rto;
+
+        /**
+         * 发送次数
+         */
+        public int xmit;
+
         /**
          * 数据
          */
@@ -382,6 +565,18 @@ public class KcpProtocol implements IKcpProtocol {
                 data.release();
                 data = null;
             }
+            conv = 0;
+            cmd = 0;
+            frg = 0;
+            wnd = 0;
+            ts = 0;
+            sn = 0;
+            una = 0;
+            resendts = 0;
+            fastack = 0;
+            rto = 0;
+            xmit = 0;
+            length = 0;
             handle.recycle(this);
         }
 
@@ -394,24 +589,62 @@ public class KcpProtocol implements IKcpProtocol {
         }
     }
 
+    /**
+     * 一次input调用(单个或一批数据报)中累计的确认信息
+     */
+    private static final class InputBatch {
+
+        int una;
+
+        boolean hasUna;
+
+        int maxack;
+
+        int latest;
+
+        boolean hasAck;
+
+        int ackedSegs;
+
+        InputBatch reset() {
+            una = 0;
+            hasUna = false;
+            maxack = 0;
+            latest = 0;
+            hasAck = false;
+            ackedSegs = 0;
+            return this;
+        }
+    }
+
     @Override
     public void release() {
-        // 释放发送队列
-        snd_queue.forEach(Segment::release);
-        snd_queue.clear();
+        // 释放发送队列 还没有确认的消息以CLOSED完成
+        releaseQueue(snd_queue);
+        if (snd_lanes != null) {
+            for (int i = 1; i < snd_lanes.length; i++) {
+                releaseQueue(snd_lanes[i]);
+            }
+        }
+        WriteCompletion completion;
+        while ((completion = snd_tracked.pollFirst()) != null) {
+            completion.complete(WriteCompletion.CLOSED);
+        }
 
         // 释放发送缓冲区
-        snd_buf.forEach(Segment::release);
         snd_buf.clear();
 
         // 释放接收队列
-        rcv_queue.forEach(Segment::release);
         rcv_queue.clear();
 
         // 释放接收缓冲区
-        rcv_buf.forEach(Segment::release);
         rcv_buf.clear();
 
+        ByteBuf unreliable;
+        while ((unreliable = rcv_unreliable.poll()) != null) {
+            unreliable.release();
+        }
+
         // 释放FEC队列
         fecRcvQueue.forEach(Segment::release);
         fecRcvQueue.clear();
@@ -431,154 +664,1526 @@ public class KcpProtocol implements IKcpProtocol {
 
     @Override
     public ByteBuf mergeRecv() {
-        // TODO: 实现接收数据合并逻辑
-        return null;
+        if (rcv_queue.isEmpty()) {
+            return null;
+        }
+        int peekSize = peekSize();
+        if (peekSize < 0) {
+            return null;
+        }
+
+        boolean recover = rcv_queue.size() >= rcv_wnd;
+
+        if (stream) {
+            ByteBuf byteBuf = mergeStream(peekSize);
+            moveRcvData();
+            if (rcv_queue.size() < rcv_wnd && recover) {
+                probe |= KcpConstants.IKCP_ASK_TELL;
+            }
+            return byteBuf;
+        }
+
+        // 合并分片，单分片的消息直接复用其数据
+        ByteBuf byteBuf = null;
+        CompositeByteBuf composite = null;
+        for (;;) {
+            int fragment = rcv_queue.frg[rcv_queue.firstSlot()] & 0xFF;
+            ByteBuf data = rcv_queue.removeFirst();
+            if (byteBuf == null) {
+                if (fragment == 0) {
+                    byteBuf = data;
+                    break;
+                }
+                if (compositeRecv) {
+                    byteBuf = composite = allocator.compositeBuffer(fragment + 1);
+                } else {
+                    byteBuf = allocator.ioBuffer(peekSize);
+                }
+            }
+            if (composite != null) {
+                // 分片本身就是数据报的retainedSlice 所有权直接交给composite
+                composite.addComponent(true, data);
+            } else {
+                byteBuf.writeBytes(data);
+                data.release();
+            }
+            if (fragment == 0) {
+                break;
+            }
+        }
+
+        moveRcvData();
+
+        // 接收队列从满变为不满 主动告知远端窗口
+        if (rcv_queue.size() < rcv_wnd && recover) {
+            probe |= KcpConstants.IKCP_ASK_TELL;
+        }
+        return byteBuf;
     }
 
     @Override
     public int recv(List<ByteBuf> bufList) {
-        // TODO: 实现数据接收逻辑
-        return 0;
+        if (rcv_queue.isEmpty()) {
+            return -1;
+        }
+        int peekSize = peekSize();
+        if (peekSize < 0) {
+            return -2;
+        }
+
+        boolean recover = rcv_queue.size() >= rcv_wnd;
+
+        int len = 0;
+        for (;;) {
+            int first = rcv_queue.firstSlot();
+            if (first < 0) {
+                break;
+            }
+            int fragment = rcv_queue.frg[first] & 0xFF;
+            ByteBuf data = rcv_queue.removeFirst();
+            len += data.readableBytes();
+            bufList.add(data);
+            // 流模式没有消息边界 一次取走所有连续数据
+            if (fragment == 0 && !stream) {
+                break;
+            }
+        }
+
+        moveRcvData();
+
+        if (rcv_queue.size() < rcv_wnd && recover) {
+            probe |= KcpConstants.IKCP_ASK_TELL;
+        }
+        return len;
     }
 
     @Override
     public int peekSize() {
-        // TODO: 实现查看下个包大小的逻辑
-        return 0;
+        int first = rcv_queue.firstSlot();
+        if (first < 0) {
+            return -1;
+        }
+        int fragment = rcv_queue.frg[first] & 0xFF;
+        if (stream) {
+            int len = 0;
+            for (int i = 0, n = rcv_queue.span(); i < n; i++) {
+                len += rcv_queue.data[rcv_queue.slotAt(i)].readableBytes();
+            }
+            return len;
+        }
+        if (fragment == 0) {
+            return rcv_queue.data[first].readableBytes();
+        }
+        if (rcv_queue.size() < fragment + 1) {
+            return -1;
+        }
+        int len = 0;
+        for (int i = 0, n = rcv_queue.span(); i < n; i++) {
+            int slot = rcv_queue.slotAt(i);
+            len += rcv_queue.data[slot].readableBytes();
+            if (rcv_queue.frg[slot] == 0) {
+                break;
+            }
+        }
+        return len;
     }
 
     @Override
     public boolean canRecv() {
-        // TODO: 实现判断是否可以接收的逻辑
-        return false;
+        int first = rcv_queue.firstSlot();
+        if (first < 0) {
+            return false;
+        }
+        if (stream) {
+            return true;
+        }
+        return rcv_queue.size() >= (rcv_queue.frg[first] & 0xFF) + 1;
     }
 
     @Override
     public int send(ByteBuf buf) {
-        // TODO: 实现数据发送逻辑
-        return 0;
+        return send(buf, 0);
     }
 
     @Override
-    public int input(ByteBuf data, boolean regular, long current) {
-        // TODO: 实现数据输入处理逻辑
-        return 0;
+    public int send(ByteBuf buf, int lane) {
+        return send(buf, lane, 0);
     }
 
     @Override
-    public long currentMs(long now) {
-        // TODO: 实现当前时间戳处理逻辑
-        return now;
+    public int send(ByteBuf buf, int lane, long deadline) {
+        return send(buf, lane, deadline, null);
     }
 
     @Override
-    public long flush(boolean ackOnly, long current) {
-        // TODO: 实现数据刷新逻辑
-        return current + interval;
+    public int send(ByteBuf buf, int lane, long deadline, WriteCompletion completion) {
+        int ret = enqueue(buf, lane, deadline, completion);
+        if (ret < 0 && completion != null) {
+            completion.complete(WriteCompletion.DROPPED);
+        }
+        return ret;
     }
 
-    @Override
-    public void update(long current) {
-        // TODO: 实现协议状态更新逻辑
-    }
+    private int enqueue(ByteBuf buf, int lane, long deadline, WriteCompletion completion) {
+        // 流模式没有消息边界 不能插队
+        SegmentStore queue = snd_lanes == null || stream ? snd_queue : snd_lanes[Math.max(0, Math.min(lane, snd_lanes.length - 1))];
+        int len = buf.readableBytes();
+        if (len == 0) {
+            return -1;
+        }
 
-    @Override
-    public long check(long current) {
-        // TODO: 实现下次更新时间检查逻辑
-        return current + interval;
-    }
+        // 流模式下先尝试追加到上一个未满的分片 需要跟踪的消息从新的分片开始 一个分片只记录一个发送结果
+        if (stream && completion == null) {
+            int last = snd_queue.lastSlot();
+            if (last >= 0) {
+                ByteBuf lastData = snd_queue.data[last];
+                int lastLen = lastData.readableBytes();
+                if (lastLen < mss) {
+                    int extend = Math.min(len, mss - lastLen);
+                    if (lastData.maxWritableBytes() < extend) {
+                        // 尾部分片还是用户数据的切片 换成一个mss大小的缓冲区 之后的小写入直接追加
+                        ByteBuf newBuf = allocator.ioBuffer(mss);
+                        newBuf.writeBytes(lastData);
+                        lastData.release();
+                        lastData = snd_queue.data[last] = newBuf;
+                    }
+                    lastData.writeBytes(buf, extend);
+                    len = buf.readableBytes();
+                    if (len == 0) {
+                        return 0;
+                    }
+                }
+            }
+        }
 
-    @Override
-    public boolean checkFlush() {
-        // TODO: 实现是否需要刷新的检查逻辑
-        return false;
-    }
+        int count = len <= mss ? 1 : (len + mss - 1) / mss;
+        // 消息模式frg只有一个字节 流模式不受限制
+        if (count > 255 && !stream) {
+            return -2;
+        }
 
-    @Override
-    public int setMtu(int mtu) {
-        // TODO: 实现MTU设置逻辑
+        // 分片
+        for (int i = 0; i < count; i++) {
+            int size = Math.min(len, mss);
+            int slot = queue.addLast(buf.readRetainedSlice(size), (byte) (stream ? 0 : count - i - 1));
+            // 流模式丢弃数据会破坏字节流 不支持过期
+            if (!stream) {
+                queue.deadline[slot] = deadline;
+            }
+            if (i == count - 1) {
+                queue.completion[slot] = completion;
+            }
+            len = buf.readableBytes();
+        }
         return 0;
     }
 
     @Override
-    public int getInterval() {
-        return interval;
-    }
-
-    @Override
-    public int nodelay(boolean nodelay, int interval, int resend, boolean nc) {
-        // TODO: 实现传输模式设置逻辑
+    public int sendUnreliable(ByteBuf buf, long current) {
+        int len = buf.readableBytes();
+        if (len > mss) {
+            return -2;
+        }
+        // 单独成包立即发出 不进入发送缓冲区 也不受拥塞窗口和节奏控制的限制
+        ackMask = ackMaskSize > 0 ? buildAckMask() : 0;
+        ByteBuf buffer = createFlushByteBuf();
+        encodeSeg(buffer, KcpConstants.IKCP_CMD_UNRELIABLE, (byte) 0, wndUnused(), (int) currentMs(current), 0, len);
+        buffer.writeBytes(buf, buf.readerIndex(), len);
+        output.out(buffer, this);
         return 0;
     }
 
     @Override
-    public int waitSnd() {
-        return snd_buf.size();
+    public ByteBuf recvUnreliable() {
+        return rcv_unreliable.poll();
     }
 
     @Override
-    public int getConv() {
-        return conv;
+    public int input(ByteBuf data, boolean regular, long current) {
+        InputBatch batch = inputBatch.reset();
+        int ret = inputDatagram(data, regular, (int) currentMs(current), batch);
+        finishInput(batch, regular, current);
+        return ret;
     }
 
     @Override
-    public void setConv(int conv) {
-        this.conv = conv;
+    public int input(List<ByteBuf> datagrams, long current) {
+        InputBatch batch = inputBatch.reset();
+        int cur = (int) currentMs(current);
+        int ret = 0;
+        for (int i = 0, n = datagrams.size(); i < n; i++) {
+            int r = inputDatagram(datagrams.get(i), true, cur, batch);
+            if (r < 0 && ret == 0) {
+                ret = r;
+            }
+        }
+        if (ackcount > 1) {
+            compactAckList();
+        }
+        finishInput(batch, true, current);
+        return ret;
     }
 
-    @Override
-    public Object getUser() {
-        return user;
-    }
+    /**
+     * 解析一个数据报，una、快速重传和拥塞控制只记录到batch中，由 {@link #finishInput} 统一处理
+     */
+    private int inputDatagram(ByteBuf data, boolean regular, int cur, InputBatch batch) {
+        int headerSize = headerSize();
+        if (data == null || data.readableBytes() < headerSize) {
+            return -1;
+        }
 
-    @Override
-    public void setUser(Object user) {
-        this.user = user;
-    }
+        while (data.readableBytes() >= headerSize) {
+            int conv = data.readIntLE();
+            if (conv != this.conv) {
+                return -4;
+            }
+            byte cmd = data.readByte();
+            byte frg = data.readByte();
+            int wnd = data.readUnsignedShortLE();
+            int ts = data.readIntLE();
+            int sn = data.readIntLE();
+            int una = data.readIntLE();
+            long mask = readAckMask(data);
+            int len = data.readIntLE();
+            if (len < 0 || data.readableBytes() < len) {
+                return -2;
+            }
+            if (cmd != KcpConstants.IKCP_CMD_PUSH && cmd != KcpConstants.IKCP_CMD_ACK
+                    && cmd != KcpConstants.IKCP_CMD_WASK && cmd != KcpConstants.IKCP_CMD_WINS
+                    && cmd != KcpConstants.IKCP_CMD_UNRELIABLE) {
+                return -3;
+            }
 
-    @Override
-    public int getState() {
-        return state;
-    }
+            // FEC恢复出来的包顺序不可信 只用常规包更新远端窗口
+            if (regular) {
+                rmt_wnd = wnd;
+            }
+            if (!batch.hasUna || una - batch.una > 0) {
+                batch.una = una;
+                batch.hasUna = true;
+            }
+            if (mask != 0) {
+                batch.ackedSegs += parseAckMask(una, mask);
+            }
 
-    @Override
-    public void setState(int state) {
-        this.state = state;
+            boolean readed = false;
+            switch (cmd) {
+                case KcpConstants.IKCP_CMD_ACK: {
+                    // 区间ACK的frg是区间内sn的个数减1 ts是其中最新的一个 普通ACK的frg总是0
+                    int last = sn + (frg & 0xFF);
+                    int rtt = cur - ts;
+                    if (rtt >= 0) {
+                        updateAck(rtt, cur);
+                        lossDetector.onAck(ts, last, cur);
+                    }
+                    for (int s = sn; s - last <= 0; s++) {
+                        if (parseAck(s, ts)) {
+                            batch.ackedSegs++;
+                        }
+                    }
+                    sn = last;
+                    // 掩码中最高位对应的sn也参与快速重传判断
+                    if (mask != 0) {
+                        int maskMax = una + 64 - Long.numberOfLeadingZeros(mask);
+                        if (maskMax - sn > 0) {
+                            sn = maskMax;
+                        }
+                    }
+                    if (!batch.hasAck) {
+                        batch.hasAck = true;
+                        batch.maxack = sn;
+                        batch.latest = ts;
+                    } else if (sn - batch.maxack > 0) {
+                        batch.maxack = sn;
+                        batch.latest = ts;
+                    }
+                    break;
+                }
+                case KcpConstants.IKCP_CMD_PUSH: {
+                    if (sn - (rcv_nxt + rcv_wnd) < 0) {
+                        ackPush(sn, ts);
+                        if (sn - rcv_nxt >= 0 && rcv_buf.slot(sn) < 0) {
+                            ByteBuf segData = len > 0 ? data.readRetainedSlice(len) : allocator.ioBuffer(0);
+                            readed = true;
+                            parseData(sn, frg, segData);
+                        }
+                    }
+                    break;
+                }
+                case KcpConstants.IKCP_CMD_WASK:
+                    // 远端询问窗口 下次flush时告知
+                    probe |= KcpConstants.IKCP_ASK_TELL;
+                    break;
+                case KcpConstants.IKCP_CMD_UNRELIABLE:
+                    // 不可靠消息不确认不排序 直接交给应用
+                    rcv_unreliable.offer(len > 0 ? data.readRetainedSlice(len) : allocator.ioBuffer(0));
+                    readed = true;
+                    break;
+                default:
+                    break;
+            }
+            if (!readed) {
+                data.skipBytes(len);
+            }
+        }
+        return 0;
     }
 
-    @Override
-    public boolean isNodelay() {
-        return nodelay;
-    }
+    /**
+     * 一批数据报解析完后统一推进una、更新快速重传计数和拥塞窗口，最多flush一次
+     */
+    private void finishInput(InputBatch batch, boolean regular, long current) {
+        boolean windowSlides = false;
+        // shrinkBuf只在这里调用 批次开始时的snd_una还没有变化
+        int prevUna = snd_una;
+        if (maxRcvWnd > 0) {
+            rcvWndTuner.onReceive((int) currentMs(current), rcv_nxt);
+        }
+        if (batch.hasUna) {
+            int released = parseUna(batch.una);
+            if (released > 0) {
+                batch.ackedSegs += released;
+                windowSlides = true;
+            }
+        }
+        shrinkBuf();
+        if (!snd_tracked.isEmpty()) {
+            completeAcked();
+        }
 
-    @Override
-    public void setNodelay(boolean nodelay) {
-        this.nodelay = nodelay;
-    }
+        // RACK模式下不统计重复ACK 分片的fastack用来标记最近一次重传是否由RACK触发
+        if (batch.hasAck && regular && !rackTlp) {
+            parseFastack(batch.maxack, batch.latest);
+        }
 
-    @Override
-    public void setFastresend(int fastresend) {
-        this.fastresend = fastresend;
-    }
+        // 有新的确认 交给拥塞控制器调整窗口
+        if (batch.ackedSegs > 0 && !nocwnd) {
+            congestionController.onAck(batch.ackedSegs, snd_nxt - snd_una, rmt_wnd, snd_una - prevUna > 0, (int) currentMs(current));
+        }
 
-    @Override
-    public void setRxMinrto(int rxMinrto) {
-        this.rx_minrto = rxMinrto;
+        if (windowSlides) {
+            // 区间ACK模式下同一个interval内多次input的ACK留到下一次flush一起发送 数据包的una已经包含累计确认
+            boolean sendAck = !ackRange || ackNoDelay || (int) currentMs(current) - ts_ack >= interval;
+            flush(false, sendAck, current);
+        } else if (ackNoDelay && ackcount > 0) {
+            flush(true, current);
+        }
     }
 
     @Override
-    public void setRcvWnd(int rcvWnd) {
-        this.rcv_wnd = rcvWnd;
+    public long currentMs(long now) {
+        return now - startTicks;
     }
 
     @Override
-    public void setAckMaskSize(int ackMaskSize) {
-        this.ackMaskSize = ackMaskSize;
+    public long flush(boolean ackOnly, long current) {
+        return flush(ackOnly, true, current);
     }
 
-    @Override
-    public void setReserved(int reserved) {
+    /**
+     * @param sendAck false时ACK留到下一次flush，本次只发送数据和窗口探测
+     */
+    private long flush(boolean ackOnly, boolean sendAck, long current) {
+        int cur = (int) currentMs(current);
+        if (maxRcvWnd > 0) {
+            tuneRcvWnd(cur);
+        }
+        int wnd = wndUnused();
+        rcv_wnd_edge = rcv_nxt + wnd;
+        if (maxRcvWnd > 0) {
+            rcvWndTuner.onAdvertise(cur, rcv_nxt, rcv_wnd_edge);
+        }
+        int headerSize = headerSize();
+        ackMask = ackMaskSize > 0 ? buildAckMask() : 0;
+
+        ByteBuf buffer = null;
+
+        // 刷新ACK
+        int count = sendAck ? ackcount : 0;
+        if (count > 0) {
+            ts_ack = cur;
+        }
+        if (ackRange && count > 1) {
+            // 排序去重后连续的sn合并成区间 acklist里可能是几次input累积下来的
+            compactAckList();
+            count = ackcount;
+        }
+        if (ackMaskSize > 0 || ackRange) {
+            // una和掩码能覆盖的sn合并成一个ACK 携带其中最新的ts用于计算RTT 其余的sn连续时合并成区间
+            int coveredSn = 0;
+            int coveredTs = 0;
+            boolean covered = false;
+            for (int i = 0; i < count; i++) {
+                int sn = (int) acklist[i * 2];
+                int ts = (int) acklist[i * 2 + 1];
+                int offset = sn - rcv_nxt - 1;
+                if (offset < -1 || (offset >= 0 && offset < ackMaskSize)) {
+                    if (!covered || ts - coveredTs > 0) {
+                        coveredSn = sn;
+                        coveredTs = ts;
+                        covered = true;
+                    }
+                    continue;
+                }
+                int end = ackRange ? ackRunEnd(i, count) : i;
+                buffer = makeSpace(buffer, headerSize);
+                encodeSeg(buffer, KcpConstants.IKCP_CMD_ACK, (byte) (end - i), wnd, ackRunTs(i, end), sn, 0);
+                i = end;
+            }
+            if (covered) {
+                buffer = makeSpace(buffer, headerSize);
+                encodeSeg(buffer, KcpConstants.IKCP_CMD_ACK, (byte) 0, wnd, coveredTs, coveredSn, 0);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                int sn = (int) acklist[i * 2];
+                if (sn - rcv_nxt >= 0 || i == count - 1) {
+                    buffer = makeSpace(buffer, headerSize);
+                    encodeSeg(buffer, KcpConstants.IKCP_CMD_ACK, (byte) 0, wnd, (int) acklist[i * 2 + 1], sn, 0);
+                }
+            }
+        }
+        if (sendAck) {
+            ackcount = 0;
+        }
+
+        if (ackOnly) {
+            flushBuffer(buffer);
+            return interval;
+        }
+
+        // 远端窗口为0时定期探测
+        if (rmt_wnd == 0) {
+            if (probe_wait == 0) {
+                probe_wait = KcpConstants.IKCP_PROBE_INIT;
+                ts_probe = current + probe_wait;
+            } else if (current - ts_probe >= 0) {
+                if (probe_wait < KcpConstants.IKCP_PROBE_INIT) {
+                    probe_wait = KcpConstants.IKCP_PROBE_INIT;
+                }
+                probe_wait += probe_wait / 2;
+                if (probe_wait > KcpConstants.IKCP_PROBE_LIMIT) {
+                    probe_wait = KcpConstants.IKCP_PROBE_LIMIT;
+                }
+                ts_probe = current + probe_wait;
+                probe |= KcpConstants.IKCP_ASK_SEND;
+            }
+        } else {
+            ts_probe = 0;
+            probe_wait = 0;
+        }
+
+        if ((probe & KcpConstants.IKCP_ASK_SEND) != 0) {
+            buffer = makeSpace(buffer, headerSize);
+            encodeSeg(buffer, KcpConstants.IKCP_CMD_WASK, (byte) 0, wnd, 0, 0, 0);
+        }
+        if ((probe & KcpConstants.IKCP_ASK_TELL) != 0) {
+            buffer = makeSpace(buffer, headerSize);
+            encodeSeg(buffer, KcpConstants.IKCP_CMD_WINS, (byte) 0, wnd, 0, 0, 0);
+        }
+        probe = 0;
+
+        // 计算发送窗口
+        int cwnd0 = Math.min(snd_wnd, rmt_wnd);
+        if (!nocwnd) {
+            cwnd0 = Math.min(Math.max(congestionController.getCwnd(), 1), cwnd0);
+        }
+
+        // 窗口已满时过期的消息也不会留在队列里等待
+        dropExpired(current);
+
+        // 从发送队列移动到发送缓冲区 snd_buf中的sn是连续的
+        int newSegsCount = 0;
+        while (snd_nxt - (snd_una + cwnd0) < 0) {
+            SegmentStore queue = snd_queue;
+            if (snd_lanes != null) {
+                // 只在消息边界切换队列
+                if (snd_lane < 0) {
+                    snd_lane = laneScheduler.pick(nonEmptyLanes());
+                    if (snd_lane < 0) {
+                        break;
+                    }
+                }
+                queue = snd_lanes[snd_lane];
+            }
+            int first = queue.firstSlot();
+            if (first < 0) {
+                break;
+            }
+            // 只在消息边界丢弃 已经移入一部分分片的消息必须完整发出
+            if (!snd_partial && isExpired(queue.deadline[first], current)) {
+                dropMessage(queue);
+                if (snd_lanes != null) {
+                    snd_lane = -1;
+                }
+                continue;
+            }
+            byte fragment = queue.frg[first];
+            WriteCompletion completion = queue.completion[first];
+            if (completion != null) {
+                completion.sn = snd_nxt;
+                snd_tracked.addLast(completion);
+            }
+            snd_buf.put(snd_nxt, frameSegment(queue.removeFirst(), snd_nxt, fragment, headerSize), fragment);
+            snd_partial = fragment != 0;
+            if (snd_lanes != null) {
+                laneScheduler.consume(snd_lane, 1);
+                if (fragment == 0) {
+                    snd_lane = -1;
+                }
+            }
+            snd_nxt++;
+            newSegsCount++;
+        }
+
+        int resent = fastresend > 0 ? fastresend : Integer.MAX_VALUE;
+
+        // 节奏控制 按速率发放本次flush的字节预算
+        long rate = 0;
+        if (pacing) {
+            rate = nocwnd ? 0 : congestionController.getPacingRate();
+            if (rate <= 0) {
+                rate = KcpPacer.deriveRate(cwnd0, mtu, rx_srtt);
+            }
+        }
+        pacer.begin(cur, rate, mtu);
+
+        // 尾部丢包探测 没有新数据可发且探测超时内没有任何ACK时重传最后一个分片
+        boolean tlpDue = false;
+        if (rackTlp && newSegsCount == 0 && sndQueueSize() == 0) {
+            tlpDue = lossDetector.tlpDelay(cur, rx_srtt, ackNoDelay ? 0 : interval) <= 0;
+        }
+
+        // 刷新数据分片
+        int change = 0;
+        boolean lost = false;
+        boolean sentNew = false;
+        long minrto = interval;
+        final SegmentStore sndBuf = snd_buf;
+        final int[] xmit = sndBuf.xmit;
+        final int[] fastack = sndBuf.fastack;
+        final int[] rto = sndBuf.rto;
+        final int[] resendts = sndBuf.resendts;
+        for (int i = 0, n = sndBuf.span(); i < n; i++) {
+            int slot = sndBuf.slotAt(i);
+            ByteBuf segData = sndBuf.data[slot];
+            if (segData == null) {
+                continue;
+            }
+            int segLen = segData.readableBytes();
+            int reason = SEND_NONE;
+            int lossDelay = Integer.MAX_VALUE;
+            if (xmit[slot] == 0) {
+                reason = SEND_FIRST;
+            } else if (rackTlp) {
+                lossDelay = lossDetector.lossDelay(sndBuf.ts[slot], sndBuf.sn[slot], cur, rx_srtt);
+                if (lossDelay <= 0) {
+                    reason = SEND_RACK;
+                } else if (cur - resendts[slot] >= 0) {
+                    reason = SEND_TIMEOUT;
+                } else if (tlpDue && sndBuf.sn[slot] == snd_nxt - 1) {
+                    reason = SEND_TLP;
+                }
+            } else if (fastack[slot] >= resent) {
+                reason = SEND_FAST;
+            } else if (fastack[slot] > 0 && newSegsCount == 0
+                    && (!pacing || cur - sndBuf.ts[slot] >= rx_srtt)) {
+                // 没有新数据可发时提前重传 节奏控制下flush更频繁 同一分片至少间隔一个RTT
+                reason = SEND_FAST;
+            } else if (cur - resendts[slot] >= 0) {
+                reason = SEND_TIMEOUT;
+            }
+
+            // 预算不足的分片保持原状 留给下一次flush
+            if (reason != SEND_NONE && !pacer.tryConsume(headerSize + segLen)) {
+                reason = SEND_NONE;
+            }
+
+            switch (reason) {
+                case SEND_FIRST:
+                    rto[slot] = rx_rto;
+                    resendts[slot] = cur + rto[slot];
+                    sentNew = true;
+                    break;
+                case SEND_RACK:
+                    lossDetector.onRackRetransmit();
+                    fastack[slot] = 1;
+                    rto[slot] = rx_rto;
+                    resendts[slot] = cur + rto[slot];
+                    change++;
+                    break;
+                case SEND_FAST:
+                    fastack[slot] = 0;
+                    rto[slot] = rx_rto;
+                    resendts[slot] = cur + rto[slot];
+                    change++;
+                    break;
+                case SEND_TIMEOUT:
+                    if (!nodelay) {
+                        rto[slot] += rx_rto;
+                    } else {
+                        rto[slot] += rx_rto / 2;
+                    }
+                    fastack[slot] = 0;
+                    resendts[slot] = cur + rto[slot];
+                    lost = true;
+                    break;
+                case SEND_TLP:
+                    // 探测不改变RTO和拥塞窗口
+                    fastack[slot] = 0;
+                    lossDetector.onTlpSent();
+                    break;
+                default:
+                    break;
+            }
+
+            if (reason != SEND_NONE) {
+                xmit[slot]++;
+                sndBuf.ts[slot] = cur;
+
+                boolean packed = buffer != null && buffer.readableBytes() > reserved
+                        && buffer.readableBytes() + headerSize + segLen <= mtu;
+                if (!packed && segData.readerIndex() == reserved + headerSize && segData.refCnt() == 1) {
+                    // 预留了头部的分片 原地改写头部后直接发送 上一次发送的数据报已经释放才能改写
+                    if (buffer != null && buffer.readableBytes() > reserved) {
+                        output.out(buffer, this);
+                        buffer = null;
+                    }
+                    int writerIndex = segData.writerIndex();
+                    segData.writerIndex(reserved);
+                    encodeSeg(segData, KcpConstants.IKCP_CMD_PUSH, sndBuf.frg[slot], wnd, cur, sndBuf.sn[slot], segLen);
+                    segData.writerIndex(writerIndex);
+                    output.out(segData.retainedDuplicate().readerIndex(0), this);
+                } else {
+                    buffer = makeSpace(buffer, headerSize + segLen);
+                    encodeSeg(buffer, KcpConstants.IKCP_CMD_PUSH, sndBuf.frg[slot], wnd, cur, sndBuf.sn[slot], segLen);
+                    if (segLen > 0) {
+                        buffer.writeBytes(segData, segData.readerIndex(), segLen);
+                    }
+                }
+
+                if (xmit[slot] >= dead_link) {
+                    state = -1;
+                }
+            }
+
+            // 取最近的重传时间
+            int delta = resendts[slot] - cur;
+            if (delta > 0 && delta < minrto) {
+                minrto = delta;
+            }
+            if (reason == SEND_NONE && lossDelay > 0 && lossDelay < minrto) {
+                minrto = lossDelay;
+            }
+        }
+
+        if (rackTlp) {
+            if (sentNew) {
+                lossDetector.onSendNew(cur);
+            } else if (snd_buf.isEmpty()) {
+                lossDetector.onIdle();
+            }
+            int tlpDelay = lossDetector.tlpDelay(cur, rx_srtt, ackNoDelay ? 0 : interval);
+            if (tlpDelay > 0 && tlpDelay < minrto) {
+                minrto = tlpDelay;
+            }
+            if (change > 0) {
+                lossDetector.onRecovery();
+            }
+        }
+
+        flushBuffer(buffer);
+        minrto = pacer.end(minrto);
+
+        // 更新拥塞窗口
+        if (!nocwnd) {
+            if (change > 0) {
+                congestionController.onFastRetransmit(snd_nxt - snd_una, resent);
+            }
+            if (lost) {
+                congestionController.onTimeout(cwnd0);
+            }
+        }
+        return minrto;
+    }
+
+    @Override
+    public void update(long current) {
+        this.current = current;
+        if (!updated) {
+            updated = true;
+            ts_flush = current;
+        }
+
+        long slap = current - ts_flush;
+        if (slap >= 10000 || slap < -10000) {
+            ts_flush = current;
+            slap = 0;
+        }
+
+        if (slap >= 0) {
+            ts_flush += interval;
+            if (current - ts_flush >= 0) {
+                ts_flush = current + interval;
+            }
+        } else {
+            ts_flush = current + interval;
+        }
+        flush(false, current);
+    }
+
+    @Override
+    public long check(long current) {
+        if (!updated) {
+            return current;
+        }
+
+        long tsFlush = ts_flush;
+        long slap = current - tsFlush;
+        if (slap >= 10000 || slap < -10000) {
+            tsFlush = current;
+            slap = 0;
+        }
+        if (slap >= 0) {
+            return current;
+        }
+
+        long tmFlush = tsFlush - current;
+        long tmPacket = Long.MAX_VALUE;
+        int cur = (int) currentMs(current);
+        // 和flush一样计入RACK和尾部探测的时间 到期的分片如果被节奏控制推迟 等预算恢复
+        boolean due = false;
+        for (int i = 0, n = snd_buf.span(); i < n; i++) {
+            int slot = snd_buf.slotAt(i);
+            if (snd_buf.data[slot] == null) {
+                continue;
+            }
+            if (snd_buf.xmit[slot] == 0) {
+                due = true;
+                continue;
+            }
+            int diff = snd_buf.resendts[slot] - cur;
+            if (rackTlp) {
+                diff = Math.min(diff, lossDetector.lossDelay(snd_buf.ts[slot], snd_buf.sn[slot], cur, rx_srtt));
+            }
+            if (diff <= 0) {
+                due = true;
+            } else if (diff < tmPacket) {
+                tmPacket = diff;
+            }
+        }
+        if (rackTlp && sndQueueSize() == 0) {
+            int tlpDelay = lossDetector.tlpDelay(cur, rx_srtt, ackNoDelay ? 0 : interval);
+            if (tlpDelay <= 0) {
+                due = true;
+            } else if (tlpDelay < tmPacket) {
+                tmPacket = tlpDelay;
+            }
+        }
+        if (due) {
+            long wait = pacer.waitTime(cur);
+            if (wait <= 0) {
+                return current;
+            }
+            tmPacket = Math.min(tmPacket, wait);
+        }
+
+        long minimal = Math.min(tmPacket, tmFlush);
+        if (minimal >= interval) {
+            minimal = interval;
+        }
+        return current + minimal;
+    }
+
+    @Override
+    public boolean checkFlush() {
+        return ackcount > 0 || probe != 0 || !snd_buf.isEmpty() || sndQueueSize() > 0;
+    }
+
+    @Override
+    public int setMtu(int mtu) {
+        if (mtu < 50 || mtu < KcpConstants.IKCP_OVERHEAD) {
+            return -1;
+        }
+        if (reserved < 0 || reserved >= mtu - headerSize()) {
+            return -1;
+        }
+        this.mtu = mtu;
+        this.mss = mtu - headerSize() - reserved;
+        congestionController.init(mss);
+        return 0;
+    }
+
+    @Override
+    public int getMss() {
+        return mss;
+    }
+
+    @Override
+    public int getInterval() {
+        return interval;
+    }
+
+    @Override
+    public int nodelay(boolean nodelay, int interval, int resend, boolean nc) {
+        this.nodelay = nodelay;
+        this.rx_minrto = nodelay ? KcpConstants.IKCP_RTO_NDL : KcpConstants.IKCP_RTO_MIN;
+        if (interval >= 0) {
+            if (interval > 5000) {
+                interval = 5000;
+            } else if (interval < 10) {
+                interval = 10;
+            }
+            this.interval = interval;
+        }
+        if (resend >= 0) {
+            this.fastresend = resend;
+        }
+        this.nocwnd = nc;
+        return 0;
+    }
+
+    @Override
+    public int waitSnd() {
+        return snd_buf.size() + sndQueueSize();
+    }
+
+    @Override
+    public void setPriorityLanes(int lanes, int[] weights) {
+        if (sndQueueSize() > 0) {
+            throw new IllegalStateException("send queue is not empty");
+        }
+        LaneScheduler scheduler = new LaneScheduler(lanes, weights);
+        if (lanes == 1) {
+            snd_lanes = null;
+            laneScheduler = null;
+            return;
+        }
+        SegmentStore[] stores = new SegmentStore[lanes];
+        stores[0] = snd_queue;
+        for (int i = 1; i < lanes; i++) {
+            stores[i] = new SegmentStore(KcpConstants.INITIAL_BUFFER_CAPACITY);
+        }
+        snd_lanes = stores;
+        laneScheduler = scheduler;
+        snd_lane = -1;
+    }
+
+    @Override
+    public int getPriorityLanes() {
+        return snd_lanes == null ? 1 : snd_lanes.length;
+    }
+
+    @Override
+    public LaneScheduler getLaneScheduler() {
+        return laneScheduler;
+    }
+
+    private int sndQueueSize() {
+        if (snd_lanes == null) {
+            return snd_queue.size();
+        }
+        int size = 0;
+        for (SegmentStore lane : snd_lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    @Override
+    public long getExpiredMessages() {
+        return expiredMessages;
+    }
+
+    @Override
+    public long getExpiredBytes() {
+        return expiredBytes;
+    }
+
+    /**
+     * 丢弃各个发送队列头部已经过期的消息，正在移入发送缓冲区的消息所在的队列跳过
+     */
+    private void dropExpired(long current) {
+        if (snd_lanes == null) {
+            if (!snd_partial) {
+                dropExpired(snd_queue, current);
+            }
+            return;
+        }
+        for (int i = 0; i < snd_lanes.length; i++) {
+            if (i != snd_lane) {
+                dropExpired(snd_lanes[i], current);
+            }
+        }
+    }
+
+    private void dropExpired(SegmentStore queue, long current) {
+        int first;
+        while ((first = queue.firstSlot()) >= 0 && isExpired(queue.deadline[first], current)) {
+            dropMessage(queue);
+        }
+    }
+
+    private static boolean isExpired(long deadline, long current) {
+        return deadline != 0 && current - deadline >= 0;
+    }
+
+    /**
+     * 丢弃队列头部的一整条消息
+     */
+    private void dropMessage(SegmentStore queue) {
+        int count = (queue.frg[queue.firstSlot()] & 0xFF) + 1;
+        WriteCompletion completion = null;
+        for (int i = 0; i < count; i++) {
+            completion = queue.completion[queue.firstSlot()];
+            ByteBuf data = queue.removeFirst();
+            expiredBytes += data.readableBytes();
+            data.release();
+        }
+        expiredMessages++;
+        if (completion != null) {
+            completion.complete(WriteCompletion.EXPIRED);
+        }
+    }
+
+    private int nonEmptyLanes() {
+        int mask = 0;
+        for (int i = 0; i < snd_lanes.length; i++) {
+            if (!snd_lanes[i].isEmpty()) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    // ==================== 内部实现 ====================
+
+    /**
+     * 流模式下把rcv_queue中所有连续数据合并成一个ByteBuf
+     *
+     * @param total 数据总长度
+     */
+    private ByteBuf mergeStream(int total) {
+        if (rcv_queue.size() == 1) {
+            return rcv_queue.removeFirst();
+        }
+        CompositeByteBuf composite = compositeRecv ? allocator.compositeBuffer(rcv_queue.size()) : null;
+        ByteBuf byteBuf = composite != null ? composite : allocator.ioBuffer(total);
+        ByteBuf data;
+        while ((data = rcv_queue.removeFirst()) != null) {
+            if (composite != null) {
+                composite.addComponent(true, data);
+            } else {
+                byteBuf.writeBytes(data);
+                data.release();
+            }
+        }
+        return byteBuf;
+    }
+
+    /**
+     * 把rcv_buf中连续的分片移动到rcv_queue
+     */
+    private void moveRcvData() {
+        while (rcv_queue.size() < rcv_wnd) {
+            int first = rcv_buf.firstSlot();
+            if (first < 0) {
+                break;
+            }
+            byte fragment = rcv_buf.frg[first];
+            rcv_queue.addLast(rcv_buf.removeFirst(), fragment);
+            rcv_nxt++;
+        }
+    }
+
+    /**
+     * 处理收到的数据分片 直接按sn落入rcv_buf对应槽位
+     */
+    private void parseData(int sn, byte frg, ByteBuf data) {
+        if (sn - (rcv_nxt + rcv_wnd) >= 0 || sn - rcv_nxt < 0 || rcv_buf.put(sn, data, frg) < 0) {
+            data.release();
+            return;
+        }
+        moveRcvData();
+    }
+
+    /**
+     * 按交付速率调整接收窗口，窗口缩小后归还接收缓冲多余的容量
+     */
+    private void tuneRcvWnd(int cur) {
+        int wnd = rcvWndTuner.tune(cur, rcv_wnd, rcv_nxt, rcv_queue.size(), rx_srtt);
+        if (wnd == rcv_wnd) {
+            return;
+        }
+        if (wnd > rcv_wnd) {
+            // 之前通告过零窗口 主动告知远端
+            if (rcv_queue.size() >= rcv_wnd) {
+                probe |= KcpConstants.IKCP_ASK_TELL;
+            }
+            rcv_wnd = wnd;
+            moveRcvData();
+        } else {
+            rcv_wnd = wnd;
+            rcv_buf.trimCapacity(wnd);
+            rcv_queue.trimCapacity(wnd);
+        }
+    }
+
+    private void updateAck(int rtt, int cur) {
+        if (rx_srtt == 0) {
+            rx_srtt = rtt;
+            rx_rttval = rtt >> 2;
+        } else {
+            int delta = rtt - rx_srtt;
+            rx_srtt += delta >> 3;
+            delta = Math.abs(delta);
+            if (rtt < rx_srtt - rx_rttval) {
+                rx_rttval += (delta - rx_rttval) >> 5;
+            } else {
+                rx_rttval += (delta - rx_rttval) >> 2;
+            }
+        }
+        int rto = rx_srtt + Math.max(interval, rx_rttval << 2);
+        rx_rto = Math.max(rx_minrto, Math.min(rto, KcpConstants.IKCP_RTO_MAX));
+        if (!nocwnd) {
+            congestionController.onRttSample(rtt, cur);
+        }
+        lossDetector.onRttSample(rtt, cur);
+    }
+
+    /**
+     * snd_una越过最后一个分片的消息以ACKED完成
+     */
+    private void completeAcked() {
+        WriteCompletion completion;
+        while ((completion = snd_tracked.peekFirst()) != null && completion.sn - snd_una < 0) {
+            snd_tracked.pollFirst();
+            completion.complete(WriteCompletion.ACKED);
+        }
+    }
+
+    private void releaseQueue(SegmentStore queue) {
+        int first;
+        while ((first = queue.firstSlot()) >= 0) {
+            WriteCompletion completion = queue.completion[first];
+            queue.removeFirst().release();
+            if (completion != null) {
+                completion.complete(WriteCompletion.CLOSED);
+            }
+        }
+        queue.clear();
+    }
+
+    /**
+     * 根据snd_buf左沿重新计算snd_una
+     */
+    private void shrinkBuf() {
+        if (snd_buf.isEmpty()) {
+            snd_una = snd_nxt;
+            snd_buf.advanceTo(snd_nxt);
+        } else {
+            snd_buf.trimHead();
+            snd_una = snd_buf.baseSeq();
+        }
+    }
+
+    private boolean parseAck(int sn, int ts) {
+        if (sn - snd_una < 0 || sn - snd_nxt >= 0) {
+            return false;
+        }
+        // ACK回显的是更早一次发送的时间戳 说明原始分片已经到达 重传是多余的
+        int slot = snd_buf.slot(sn);
+        if (slot >= 0 && snd_buf.xmit[slot] > 1 && ts - snd_buf.ts[slot] < 0) {
+            // RACK提前判定丢失的分片原始包其实到了 说明链路有乱序
+            lossDetector.onSpuriousRetransmit(rackTlp && snd_buf.fastack[slot] > 0);
+        }
+        return snd_buf.remove(sn);
+    }
+
+    /**
+     * 批量释放所有小于una的分片
+     *
+     * @return 释放的分片数量
+     */
+    private int parseUna(int una) {
+        if (una - snd_una <= 0 || una - snd_nxt > 0) {
+            return 0;
+        }
+        return snd_buf.advanceTo(una);
+    }
+
+    /**
+     * 按选择确认掩码一次性清除已被对端收到的分片
+     *
+     * @param una  掩码的基准 第i位对应 una+1+i
+     * @param mask 选择确认掩码
+     * @return 释放的分片数量
+     */
+    private int parseAckMask(int una, long mask) {
+        int released = 0;
+        while (mask != 0) {
+            int bit = Long.numberOfTrailingZeros(mask);
+            int sn = una + 1 + bit;
+            if (sn - snd_nxt >= 0) {
+                break;
+            }
+            if (snd_buf.remove(sn)) {
+                released++;
+            }
+            mask &= mask - 1;
+        }
+        return released;
+    }
+
+    /**
+     * 根据rcv_buf生成选择确认掩码
+     */
+    private long buildAckMask() {
+        long mask = 0;
+        for (int i = 0; i < ackMaskSize; i++) {
+            if (rcv_buf.slot(rcv_nxt + 1 + i) >= 0) {
+                mask |= 1L << i;
+            }
+        }
+        return mask;
+    }
+
+    private long readAckMask(ByteBuf data) {
+        switch (ackMaskSize) {
+            case 8:
+                return data.readUnsignedByte();
+            case 16:
+                return data.readUnsignedShortLE();
+            case 32:
+                return data.readIntLE() & 0xFFFFFFFFL;
+            case 64:
+                return data.readLongLE();
+            default:
+                return 0;
+        }
+    }
+
+    private void parseFastack(int sn, int ts) {
+        if (sn - snd_una < 0 || sn - snd_nxt >= 0) {
+            return;
+        }
+        for (int i = 0, n = sn - snd_buf.baseSeq(); i < n; i++) {
+            int slot = snd_buf.slotAt(i);
+            // 被节奏控制推迟、还没发出过的分片不参与
+            if (snd_buf.data[slot] != null && snd_buf.xmit[slot] > 0 && snd_buf.ts[slot] - ts <= 0) {
+                snd_buf.fastack[slot]++;
+            }
+        }
+    }
+
+    private void ackPush(int sn, int ts) {
+        if (acklist == null) {
+            acklist = new long[KcpConstants.INITIAL_ACK_LIST_CAPACITY * 2];
+        }
+        int newSize = 2 * (ackcount + 1);
+        if (newSize > acklist.length) {
+            long[] newArray = new long[acklist.length << 1];
+            System.arraycopy(acklist, 0, newArray, 0, acklist.length);
+            acklist = newArray;
+        }
+        acklist[2 * ackcount] = sn;
+        acklist[2 * ackcount + 1] = ts;
+        ackcount++;
+    }
+
+    /**
+     * 按sn排序并去重ACK列表，同一sn只保留ts最新的一个
+     *
+     * <p>批量input时同一分片的重传可能在一批里出现多次，去重后flush只回一个ACK。</p>
+     */
+    private void compactAckList() {
+        int count = ackcount;
+        if (ackSortBuf == null || ackSortBuf.length < count) {
+            ackSortBuf = new long[acklist.length >> 1];
+        }
+        long[] keys = ackSortBuf;
+        // 高32位是相对rcv_nxt的有符号偏移 低32位是ts 排序后同一sn的最新ts排在最后
+        for (int i = 0; i < count; i++) {
+            int offset = (int) acklist[i * 2] - rcv_nxt;
+            keys[i] = ((long) offset << 32) | (acklist[i * 2 + 1] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(keys, 0, count);
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (i + 1 < count && (keys[i + 1] >> 32) == (keys[i] >> 32)) {
+                continue;
+            }
+            acklist[n * 2] = rcv_nxt + (int) (keys[i] >> 32);
+            acklist[n * 2 + 1] = (int) keys[i];
+            n++;
+        }
+        ackcount = n;
+    }
+
+    /**
+     * 从acklist[from]开始sn连续的最后一个下标，一个区间最多 {@value KcpConstants#IKCP_ACK_RANGE_MAX} 个sn
+     */
+    private int ackRunEnd(int from, int count) {
+        int end = from;
+        int limit = Math.min(count, from + KcpConstants.IKCP_ACK_RANGE_MAX);
+        while (end + 1 < limit && (int) acklist[(end + 1) * 2] - (int) acklist[end * 2] == 1) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * 区间内最新的ts，远端用它计算RTT
+     */
+    private int ackRunTs(int from, int end) {
+        int ts = (int) acklist[from * 2 + 1];
+        for (int i = from + 1; i <= end; i++) {
+            int t = (int) acklist[i * 2 + 1];
+            if (t - ts > 0) {
+                ts = t;
+            }
+        }
+        return ts;
+    }
+
+    private int wndUnused() {
+        return Math.max(rcv_wnd - rcv_queue.size(), 0);
+    }
+
+    private void encodeSeg(ByteBuf buf, byte cmd, byte frg, int wnd, int ts, int sn, int len) {
+        buf.writeIntLE(conv);
+        buf.writeByte(cmd);
+        buf.writeByte(frg);
+        buf.writeShortLE(wnd);
+        buf.writeIntLE(ts);
+        buf.writeIntLE(sn);
+        buf.writeIntLE(rcv_nxt);
+        switch (ackMaskSize) {
+            case 8:
+                buf.writeByte((int) ackMask);
+                break;
+            case 16:
+                buf.writeShortLE((int) ackMask);
+                break;
+            case 32:
+                buf.writeIntLE((int) ackMask);
+                break;
+            case 64:
+                buf.writeLongLE(ackMask);
+                break;
+            default:
+                break;
+        }
+        buf.writeIntLE(len);
+    }
+
+    /**
+     * 协议头大小，开启选择确认时包含掩码
+     */
+    private int headerSize() {
+        return KcpConstants.IKCP_OVERHEAD + (ackMaskSize >> 3);
+    }
+
+    /**
+     * 进入发送缓冲区时把大分片拷贝到预留了 保留字段+协议头 的缓冲区，readerIndex指向数据，
+     * 之后每次发送只改写头部并发送切片，重传不再分配和拷贝。小分片仍然拷贝进共享的数据报和其他分片一起发送
+     */
+    private ByteBuf frameSegment(ByteBuf segData, int sn, byte frg, int headerSize) {
+        int len = segData.readableBytes();
+        int headroom = reserved + headerSize;
+        if (headroom + len <= mtu >> 1) {
+            return segData;
+        }
+        ByteBuf frame = allocator.ioBuffer(headroom + len);
+        frame.writerIndex(reserved);
+        encodeSeg(frame, KcpConstants.IKCP_CMD_PUSH, frg, 0, 0, sn, len);
+        frame.writeBytes(segData, segData.readerIndex(), len);
+        frame.readerIndex(headroom);
+        segData.release();
+        return frame;
+    }
+
+    private ByteBuf createFlushByteBuf() {
+        ByteBuf buffer = allocator.ioBuffer(mtu);
+        buffer.writerIndex(reserved);
+        return buffer;
+    }
+
+    private ByteBuf makeSpace(ByteBuf buffer, int space) {
+        if (buffer == null) {
+            return createFlushByteBuf();
+        }
+        if (buffer.readableBytes() + space > mtu) {
+            output.out(buffer, this);
+            return createFlushByteBuf();
+        }
+        return buffer;
+    }
+
+    private void flushBuffer(ByteBuf buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (buffer.readableBytes() > reserved) {
+            output.out(buffer, this);
+            return;
+        }
+        buffer.release();
+    }
+
+    @Override
+    public int getConv() {
+        return conv;
+    }
+
+    @Override
+    public void setConv(int conv) {
+        this.conv = conv;
+    }
+
+    @Override
+    public Object getUser() {
+        return user;
+    }
+
+    @Override
+    public void setUser(Object user) {
+        this.user = user;
+    }
+
+    @Override
+    public int getState() {
+        return state;
+    }
+
+    @Override
+    public void setState(int state) {
+        this.state = state;
+    }
+
+    @Override
+    public boolean isNodelay() {
+        return nodelay;
+    }
+
+    @Override
+    public void setNodelay(boolean nodelay) {
+        this.nodelay = nodelay;
+    }
+
+    @Override
+    public void setFastresend(int fastresend) {
+        this.fastresend = fastresend;
+    }
+
+    @Override
+    public void setRxMinrto(int rxMinrto) {
+        this.rx_minrto = rxMinrto;
+    }
+
+    @Override
+    public void setRcvWnd(int rcvWnd) {
+        this.rcv_wnd = rcvWnd;
+        this.rcv_wnd_base = rcvWnd;
+        rcvWndTuner.configure(rcvWnd, maxRcvWnd);
+    }
+
+    @Override
+    public int getRcvWnd() {
+        return rcv_wnd;
+    }
+
+    @Override
+    public int getMaxRcvWnd() {
+        return maxRcvWnd;
+    }
+
+    @Override
+    public void setMaxRcvWnd(int maxRcvWnd) {
+        this.maxRcvWnd = maxRcvWnd > 0 ? Math.max(maxRcvWnd, rcv_wnd_base) : 0;
+        if (this.maxRcvWnd == 0) {
+            rcv_wnd = Math.max(rcv_wnd_base, rcv_wnd_edge - rcv_nxt);
+        }
+        rcvWndTuner.configure(rcv_wnd_base, this.maxRcvWnd);
+    }
+
+    @Override
+    public RcvWndTuner getRcvWndTuner() {
+        return rcvWndTuner;
+    }
+
+    @Override
+    public void setAckMaskSize(int ackMaskSize) {
+        if (ackMaskSize != 0 && ackMaskSize != 8 && ackMaskSize != 16 && ackMaskSize != 32 && ackMaskSize != 64) {
+            throw new IllegalArgumentException("ackMaskSize must be 0/8/16/32/64: " + ackMaskSize);
+        }
+        this.ackMaskSize = ackMaskSize;
+        this.mss = mtu - headerSize() - reserved;
+        congestionController.init(mss);
+    }
+
+    @Override
+    public void setReserved(int reserved) {
         this.reserved = reserved;
+        this.mss = mtu - headerSize() - reserved;
+        congestionController.init(mss);
+    }
+
+    @Override
+    public CongestionController getCongestionController() {
+        return congestionController;
+    }
+
+    @Override
+    public void setCongestionController(CongestionController congestionController) {
+        this.congestionController = ObjectUtil.checkNotNull(congestionController, "congestionController");
+        congestionController.init(mss);
+    }
+
+    @Override
+    public boolean isPacing() {
+        return pacing;
+    }
+
+    @Override
+    public void setPacing(boolean pacing) {
+        this.pacing = pacing;
+    }
+
+    @Override
+    public KcpPacer getPacer() {
+        return pacer;
+    }
+
+    @Override
+    public boolean isRackTlp() {
+        return rackTlp;
+    }
+
+    @Override
+    public void setRackTlp(boolean rackTlp) {
+        this.rackTlp = rackTlp;
+    }
+
+    @Override
+    public KcpLossDetector getLossDetector() {
+        return lossDetector;
+    }
+
+    @Override
+    public boolean isAckRange() {
+        return ackRange;
+    }
+
+    @Override
+    public void setAckRange(boolean ackRange) {
+        this.ackRange = ackRange;
+    }
+
+    @Override
+    public long getPacingRate() {
+        return nocwnd ? 0 : congestionController.getPacingRate();
     }
 
     @Override
@@ -621,6 +2226,16 @@ public class KcpProtocol implements IKcpProtocol {
         this.ackNoDelay = ackNoDelay;
     }
 
+    @Override
+    public boolean isCompositeRecv() {
+        return compositeRecv;
+    }
+
+    @Override
+    public void setCompositeRecv(boolean compositeRecv) {
+        this.compositeRecv = compositeRecv;
+    }
+
     /**
      * 创建KCP协议实例
      * @return KCP协议实例
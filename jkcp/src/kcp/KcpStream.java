@@ -0,0 +1,286 @@
+package kcp.kcp;
+
+import io.netty.buffer.ByteBuf;
+import kcp.listener.KcpStreamListener;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 连接上的一个有序逻辑流
+ *
+ * <p>写入的消息在额度足够时立即交给连接发送，额度用完后留在流中，等远端归还额度后按顺序发出。
+ * 额度只要大于0就可以发送一条消息，超出部分从之后归还的额度中扣除。</p>
+ *
+ * <p>默认收到的消息直接回调 {@link KcpStreamListener#handleReceive}，回调返回后归还额度；
+ * 关闭自动读取后消息留在流中，应用通过 {@link #read()} 取走时才归还额度，远端最多再发送一个窗口的数据。</p>
+ *
+ * <p>写入、读取和关闭可以在任意线程调用。</p>
+ *
+ * @since 1.6
+ */
+public final class KcpStream {
+
+    private final KcpStreamMux mux;
+
+    private final int id;
+
+    /**
+     * 额度累计到窗口的一半时归还给远端
+     */
+    private final int creditThreshold;
+
+    private final AtomicLong sendCredit;
+
+    private final Queue<ByteBuf> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final Queue<ByteBuf> received = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 已经取走但还没有归还给远端的字节数
+     */
+    private final AtomicInteger consumed = new AtomicInteger();
+
+    private volatile boolean autoRead = true;
+
+    /**
+     * 本端请求关闭，剩余数据发完后发送CLOSE
+     */
+    private volatile boolean closing;
+
+    /**
+     * 不再发送任何帧
+     */
+    private volatile boolean terminated;
+
+    /**
+     * 帧被连接的写缓冲区拒绝，等写缓冲区腾出空间后由 {@link KcpStreamMux#resumeBlocked()} 恢复
+     */
+    private final AtomicBoolean blocked = new AtomicBoolean();
+
+    KcpStream(KcpStreamMux mux, int id, int window) {
+        this.mux = mux;
+        this.id = id;
+        this.creditThreshold = Math.max(window >> 1, 1);
+        this.sendCredit = new AtomicLong(window);
+    }
+
+    /**
+     * 写入一条消息，引用转移给流
+     *
+     * @return false 如果流已经关闭，byteBuf会被释放
+     */
+    public boolean write(ByteBuf byteBuf) {
+        if (closing) {
+            byteBuf.release();
+            return false;
+        }
+        pending.offer(byteBuf);
+        drain();
+        return true;
+    }
+
+    /**
+     * 关闭自动读取时取出一条消息，调用方负责释放
+     *
+     * @return null表示没有数据
+     */
+    public ByteBuf read() {
+        ByteBuf byteBuf = received.poll();
+        if (byteBuf != null) {
+            consume(byteBuf.readableBytes());
+        }
+        return byteBuf;
+    }
+
+    /**
+     * 关闭流，已写入的消息发完后通知远端，未读取的和之后收到的数据被丢弃
+     */
+    public void close() {
+        closing = true;
+        drain();
+        releaseReceived();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * 所属连接
+     */
+    public KcpConnection getConnection() {
+        return mux.getConnection();
+    }
+
+    /**
+     * 剩余的发送额度，可能为负数
+     */
+    public long getSendCredit() {
+        return sendCredit.get();
+    }
+
+    public boolean isAutoRead() {
+        return autoRead;
+    }
+
+    /**
+     * 设置自动读取，关闭后收到的消息留在流中由 {@link #read()} 取出
+     */
+    public void setAutoRead(boolean autoRead) {
+        this.autoRead = autoRead;
+    }
+
+    public boolean isClosed() {
+        return closing;
+    }
+
+    /**
+     * 在连接的执行线程中处理收到的数据
+     */
+    void receive(ByteBuf data, KcpStreamListener listener) {
+        if (closing) {
+            return;
+        }
+        // 之前的数据还没取走时排在后面 保持顺序
+        if (!autoRead || !received.isEmpty()) {
+            received.offer(data.retainedSlice());
+            // 应用线程刚好关闭了流
+            if (closing) {
+                releaseReceived();
+            }
+            return;
+        }
+        int len = data.readableBytes();
+        try {
+            listener.handleReceive(data, this);
+        } finally {
+            consume(len);
+        }
+    }
+
+    void addCredit(int credit) {
+        sendCredit.addAndGet(credit);
+        drain();
+    }
+
+    /**
+     * 远端关闭或者连接关闭，未发送的数据直接释放
+     */
+    void terminate() {
+        closing = true;
+        terminated = true;
+        drain();
+    }
+
+    void releaseReceived() {
+        ByteBuf byteBuf;
+        while ((byteBuf = received.poll()) != null) {
+            byteBuf.release();
+        }
+    }
+
+    /**
+     * 写缓冲区腾出空间后重试被拒绝的帧
+     */
+    void resume() {
+        blocked.set(false);
+        drain();
+        consume(0);
+    }
+
+    private void consume(int len) {
+        if (terminated || consumed.addAndGet(len) < creditThreshold) {
+            return;
+        }
+        int credit = consumed.getAndSet(0);
+        if (credit > 0 && !mux.writeCredit(id, credit)) {
+            // 额度留到重试时归还 否则远端会一直等待额度
+            consumed.addAndGet(credit);
+            onRejected();
+        }
+    }
+
+    /**
+     * 帧被连接拒绝时稍后重试，不可能写入时关闭流
+     */
+    private void onRejected() {
+        KcpConnection connection = mux.getConnection();
+        if (!connection.isActive()) {
+            // 连接已经关闭 由mux.release()通知
+            terminate();
+            return;
+        }
+        // 写缓冲区为空仍然被拒绝 这一帧永远写不进去
+        if (connection.getPendingWriteBytes() == 0) {
+            mux.fail(this, new IllegalStateException("stream " + id + " frame rejected by an empty write buffer"));
+            return;
+        }
+        if (blocked.compareAndSet(false, true)) {
+            mux.block(this);
+            // 写任务可能在登记之前已经清空了写缓冲区 不会再恢复这个流 直接再试一次
+            if (connection.getPendingWriteBytes() == 0) {
+                blocked.set(false);
+            }
+        }
+    }
+
+    /**
+     * 同一时间只有一个线程发送，保证流内消息的顺序
+     */
+    private void drain() {
+        while (draining.compareAndSet(false, true)) {
+            try {
+                ByteBuf byteBuf;
+                if (terminated) {
+                    while ((byteBuf = pending.poll()) != null) {
+                        byteBuf.release();
+                    }
+                } else {
+                    while (!blocked.get() && sendCredit.get() > 0 && (byteBuf = pending.peek()) != null) {
+                        // 被拒绝时消息留在队首 额度不扣除 恢复后按原来的顺序重试
+                        if (!mux.writeFrame(KcpStreamMux.FRAME_DATA, id, byteBuf)) {
+                            onRejected();
+                            break;
+                        }
+                        pending.poll();
+                        sendCredit.addAndGet(-byteBuf.readableBytes());
+                        byteBuf.release();
+                    }
+                    if (!blocked.get() && !terminated && closing && pending.isEmpty()) {
+                        if (mux.writeFrame(KcpStreamMux.FRAME_CLOSE, id, null)) {
+                            terminated = true;
+                            mux.remove(this);
+                        } else {
+                            onRejected();
+                        }
+                    }
+                }
+            } finally {
+                draining.set(false);
+            }
+            // 释放标志后再检查一次 其他线程可能刚好写入数据或者归还了额度
+            boolean more = pending.isEmpty()
+                    ? closing && !terminated && !blocked.get()
+                    : terminated || (sendCredit.get() > 0 && !blocked.get());
+            if (!more) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "KcpStream{" +
+                "id=" + id +
+                ", sendCredit=" + sendCredit.get() +
+                ", autoRead=" + autoRead +
+                ", closed=" + closing +
+                '}';
+    }
+}
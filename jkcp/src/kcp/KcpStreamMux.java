@@ -0,0 +1,294 @@
+package kcp.kcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import kcp.listener.KcpListener;
+import kcp.listener.KcpStreamListener;
+import kcp.threading.IMessageExecutor;
+import kcp.threading.ITask;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 一个连接上的逻辑流复用
+ *
+ * <p>每条KCP消息是一个帧：{@code 类型(1字节) + 流ID(4字节小端) + 数据}，帧类型有：</p>
+ * <ul>
+ *   <li><strong>OPEN</strong>：打开流，两端同时打开同一个ID时合并成一个流</li>
+ *   <li><strong>DATA</strong>：流上的一条消息</li>
+ *   <li><strong>CLOSE</strong>：关闭流，在该流之前的数据之后发出，远端收到后不再接收该流的数据</li>
+ *   <li><strong>CREDIT</strong>：归还发送额度(4字节小端的字节数)</li>
+ * </ul>
+ *
+ * <p>每个流有独立的发送额度，初始为两端约定的窗口字节数，应用取走数据后接收端分批归还。
+ * 某个流的接收方处理慢时只有这个流的发送被暂停，其他流不受影响，也不会占满整个连接的发送窗口。
+ * 所有流共用连接的KCP序号，丢包时仍然会互相阻塞到重传完成。</p>
+ *
+ * <p>帧被连接的写缓冲区拒绝时(超过上限)，数据和额度留在流中，写任务腾出空间后按顺序重试；
+ * 写缓冲区为空仍然写不进去的帧会让流失败关闭。DROP_OLDEST策略和消息过期会在写缓冲区中丢弃已经接受的帧，
+ * 破坏流的顺序和额度，开启流复用时不要使用。</p>
+ *
+ * <p>用法：</p>
+ * <pre>{@code
+ * KcpStream chat = connection.openStream(1);
+ * chat.write(byteBuf);
+ * }</pre>
+ *
+ * <p>打开流和发送数据可以在任意线程调用，收到的帧由连接的执行线程调用 {@link #handleFrame(ByteBuf)} 处理。</p>
+ *
+ * @since 1.6
+ */
+public final class KcpStreamMux {
+
+    static final byte FRAME_OPEN = 1;
+
+    static final byte FRAME_DATA = 2;
+
+    static final byte FRAME_CLOSE = 3;
+
+    static final byte FRAME_CREDIT = 4;
+
+    static final int FRAME_HEADER_SIZE = 5;
+
+    /**
+     * 不超过该长度的数据拷贝到帧头之后，更长的和帧头组合发送
+     */
+    static final int COPY_THRESHOLD = 1024;
+
+    private final KcpConnection connection;
+
+    private final ByteBufAllocator allocator;
+
+    private final KcpStreamListener listener;
+
+    private final int window;
+
+    private final Map<Integer, KcpStream> streams = new ConcurrentHashMap<>();
+
+    private final Queue<KcpStream> blocked = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean closed;
+
+    /**
+     * @param connection 所属连接
+     * @param allocator  帧缓冲区分配器
+     * @param listener   流事件监听器
+     * @param window     每个流的初始发送额度(字节)，两端必须一致
+     */
+    public KcpStreamMux(KcpConnection connection, ByteBufAllocator allocator, KcpStreamListener listener, int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window: " + window + " (expected: > 0)");
+        }
+        this.connection = connection;
+        this.allocator = allocator;
+        this.listener = listener;
+        this.window = window;
+    }
+
+    /**
+     * 打开一个流
+     *
+     * @param id 流ID，由应用分配，两端可以约定奇偶避免冲突
+     * @return 新打开的流
+     * @throws IllegalStateException 该ID的流已经打开，或者连接已经关闭
+     */
+    public KcpStream openStream(int id) {
+        if (closed) {
+            throw new IllegalStateException("connection closed");
+        }
+        KcpStream stream = new KcpStream(this, id, window);
+        if (streams.putIfAbsent(id, stream) != null) {
+            throw new IllegalStateException("stream " + id + " already open");
+        }
+        if (!writeFrame(FRAME_OPEN, id, null)) {
+            streams.remove(id, stream);
+            throw new IllegalStateException("stream " + id + " open frame rejected");
+        }
+        return stream;
+    }
+
+    /**
+     * 获取已打开的流
+     *
+     * @return null表示没有打开
+     */
+    public KcpStream getStream(int id) {
+        return streams.get(id);
+    }
+
+    /**
+     * 已打开的流的个数
+     */
+    public int getStreamCount() {
+        return streams.size();
+    }
+
+    /**
+     * 每个流的初始发送额度(字节)
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * 处理收到的一帧，不持有msg的引用
+     *
+     * @param msg 收到的KCP消息
+     * @throws IllegalArgumentException 帧格式不合法
+     */
+    public void handleFrame(ByteBuf msg) {
+        if (msg.readableBytes() < FRAME_HEADER_SIZE) {
+            throw new IllegalArgumentException("corrupted stream frame, length: " + msg.readableBytes());
+        }
+        byte type = msg.readByte();
+        int id = msg.readIntLE();
+        KcpStream stream;
+        switch (type) {
+            case FRAME_OPEN:
+                if (closed || streams.containsKey(id)) {
+                    break;
+                }
+                stream = new KcpStream(this, id, window);
+                streams.put(id, stream);
+                listener.onStreamOpened(stream);
+                break;
+            case FRAME_DATA:
+                stream = streams.get(id);
+                // 本端已经关闭的流 远端在收到CLOSE之前发出的数据直接丢弃
+                if (stream != null) {
+                    stream.receive(msg, listener);
+                }
+                break;
+            case FRAME_CLOSE:
+                stream = streams.remove(id);
+                if (stream != null) {
+                    stream.terminate();
+                    listener.handleClose(stream);
+                }
+                break;
+            case FRAME_CREDIT:
+                if (msg.readableBytes() < 4) {
+                    throw new IllegalArgumentException("corrupted credit frame, length: " + msg.readableBytes());
+                }
+                int credit = msg.readIntLE();
+                stream = streams.get(id);
+                if (stream != null && credit > 0) {
+                    stream.addCredit(credit);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown stream frame type: " + type);
+        }
+    }
+
+    /**
+     * 连接关闭时关闭所有的流并释放未发送和未读取的数据
+     */
+    public void release() {
+        closed = true;
+        for (KcpStream stream : streams.values()) {
+            streams.remove(stream.getId());
+            stream.terminate();
+            stream.releaseReceived();
+            listener.handleClose(stream);
+        }
+    }
+
+    /**
+     * 写缓冲区腾出空间后重试被拒绝的帧，由写任务在连接的执行线程中调用
+     */
+    public void resumeBlocked() {
+        for (int n = blocked.size(); n > 0; n--) {
+            KcpStream stream = blocked.poll();
+            if (stream == null) {
+                break;
+            }
+            stream.resume();
+        }
+    }
+
+    KcpConnection getConnection() {
+        return connection;
+    }
+
+    void block(KcpStream stream) {
+        blocked.offer(stream);
+    }
+
+    /**
+     * 流的帧不可能写入时关闭流，在连接的执行线程中回调 {@link KcpStreamListener#handleClose} 和
+     * {@link KcpListener#handleException}
+     */
+    void fail(KcpStream stream, Throwable cause) {
+        if (!streams.remove(stream.getId(), stream)) {
+            return;
+        }
+        stream.terminate();
+        stream.releaseReceived();
+        // 尽量通知远端 关闭帧很小
+        writeFrame(FRAME_CLOSE, stream.getId(), null);
+        ITask task = () -> {
+            listener.handleClose(stream);
+            KcpListener connectionListener = connection.getKcpListener();
+            if (connectionListener != null) {
+                connectionListener.handleException(cause, connection);
+            }
+        };
+        IMessageExecutor messageExecutor = connection.getMessageExecutor();
+        if (messageExecutor == null) {
+            task.execute();
+        } else {
+            messageExecutor.enqueue(task);
+        }
+    }
+
+    void remove(KcpStream stream) {
+        streams.remove(stream.getId(), stream);
+    }
+
+    /**
+     * 写出一帧，不持有payload的引用，写入成功后由调用方释放
+     *
+     * @return false 如果连接已经关闭或者写缓冲区拒绝
+     */
+    boolean writeFrame(byte type, int id, ByteBuf payload) {
+        int len = payload == null ? 0 : payload.readableBytes();
+        if (len > COPY_THRESHOLD) {
+            ByteBuf header = allocator.ioBuffer(FRAME_HEADER_SIZE);
+            header.writeByte(type);
+            header.writeIntLE(id);
+            CompositeByteBuf frame = allocator.compositeBuffer(2);
+            frame.addComponent(true, header);
+            frame.addComponent(true, payload.retainedDuplicate());
+            return connection.write(frame);
+        }
+        ByteBuf frame = allocator.ioBuffer(FRAME_HEADER_SIZE + len);
+        frame.writeByte(type);
+        frame.writeIntLE(id);
+        if (payload != null) {
+            frame.writeBytes(payload, payload.readerIndex(), len);
+        }
+        return connection.write(frame);
+    }
+
+    boolean writeCredit(int id, int credit) {
+        ByteBuf frame = allocator.ioBuffer(FRAME_HEADER_SIZE + 4);
+        frame.writeByte(FRAME_CREDIT);
+        frame.writeIntLE(id);
+        frame.writeIntLE(credit);
+        return connection.write(frame);
+    }
+
+    @Override
+    public String toString() {
+        return "KcpStreamMux{" +
+                "streams=" + streams.size() +
+                ", window=" + window +
+                ", closed=" + closed +
+                '}';
+    }
+}
@@ -0,0 +1,139 @@
+package kcp.kcp;
+
+import java.util.Arrays;
+
+/**
+ * 优先级车道调度
+ *
+ * <p>车道编号越小优先级越高，有两种调度方式：</p>
+ * <ul>
+ *   <li><strong>严格优先级</strong>：总是选择有数据的最高优先级车道，低优先级车道只在高优先级车道为空时发送</li>
+ *   <li><strong>加权轮询</strong>：每轮每个车道最多发送权重个单位(分片或消息)，额度用完的车道让给下一个车道，
+ *   所有有数据的车道额度都用完后开始新的一轮，低优先级车道不会被饿死</li>
+ * </ul>
+ *
+ * <p>调用方用位图告知哪些车道有数据，所以最多支持 {@value #MAX_LANES} 个车道。</p>
+ *
+ * <p>非线程安全，由所属连接的执行线程独占访问。</p>
+ *
+ * @since 1.6
+ */
+public final class LaneScheduler {
+
+    public static final int MAX_LANES = 32;
+
+    private final int lanes;
+
+    /**
+     * null表示严格优先级
+     */
+    private final int[] weights;
+
+    private final int[] credits;
+
+    private final long[] picks;
+
+    /**
+     * @param lanes   车道数
+     * @param weights 每个车道的权重，null表示严格优先级
+     */
+    public LaneScheduler(int lanes, int[] weights) {
+        if (lanes < 1 || lanes > MAX_LANES) {
+            throw new IllegalArgumentException("lanes: " + lanes + " (expected: 1-" + MAX_LANES + ")");
+        }
+        if (weights != null) {
+            if (weights.length != lanes) {
+                throw new IllegalArgumentException("weights.length: " + weights.length + " (expected: " + lanes + ")");
+            }
+            for (int weight : weights) {
+                if (weight <= 0) {
+                    throw new IllegalArgumentException("weight: " + weight + " (expected: > 0)");
+                }
+            }
+            weights = weights.clone();
+        }
+        this.lanes = lanes;
+        this.weights = weights;
+        this.credits = weights == null ? null : weights.clone();
+        this.picks = new long[lanes];
+    }
+
+    /**
+     * 选择下一个发送的车道
+     *
+     * @param nonEmpty 有数据的车道位图，第i位对应车道i
+     * @return 车道编号，没有车道有数据时返回-1
+     */
+    public int pick(int nonEmpty) {
+        if (nonEmpty == 0) {
+            return -1;
+        }
+        int lane;
+        if (weights == null) {
+            lane = Integer.numberOfTrailingZeros(nonEmpty);
+        } else {
+            lane = firstWithCredit(nonEmpty);
+            if (lane < 0) {
+                // 有数据的车道额度都用完了 开始新的一轮
+                for (int i = 0; i < lanes; i++) {
+                    credits[i] = Math.min(credits[i] + weights[i], weights[i]);
+                }
+                lane = firstWithCredit(nonEmpty);
+                if (lane < 0) {
+                    lane = Integer.numberOfTrailingZeros(nonEmpty);
+                }
+            }
+        }
+        picks[lane]++;
+        return lane;
+    }
+
+    /**
+     * 扣除车道本轮的额度
+     *
+     * @param lane  车道编号
+     * @param units 发送的单位数
+     */
+    public void consume(int lane, int units) {
+        if (weights != null) {
+            credits[lane] -= units;
+        }
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    /**
+     * 是否严格优先级
+     */
+    public boolean isStrict() {
+        return weights == null;
+    }
+
+    /**
+     * 车道被选中的次数
+     */
+    public long getPicks(int lane) {
+        return picks[lane];
+    }
+
+    private int firstWithCredit(int nonEmpty) {
+        for (int mask = nonEmpty; mask != 0; mask &= mask - 1) {
+            int lane = Integer.numberOfTrailingZeros(mask);
+            if (credits[lane] > 0) {
+                return lane;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "LaneScheduler{" +
+                "lanes=" + lanes +
+                ", weights=" + Arrays.toString(weights) +
+                ", picks=" + Arrays.toString(picks) +
+                '}';
+    }
+}
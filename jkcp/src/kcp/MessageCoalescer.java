@@ -0,0 +1,342 @@
+package kcp.kcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+
+import java.util.List;
+
+/**
+ * 发送端小消息合并
+ *
+ * <p>把多个小的应用消息按 {@code varint长度 + 数据} 的格式依次写进一个不超过MSS的批次，
+ * 批次写满或者第一条消息等待超过设定的微秒数后作为一条KCP消息发送，从而让多条消息共用一个24字节的分片头，
+ * 也减少数据报的个数。超过MSS的消息单独成帧发送，不拷贝数据。</p>
+ *
+ * <p>接收端用 {@link #split(ByteBuf, List)} 把一条KCP消息拆回原来的应用消息，两端必须同时开启。
+ * 只用于消息模式，流模式没有消息边界。</p>
+ *
+ * <p>用法：</p>
+ * <pre>{@code
+ * coalescer.write(byteBuf, System.nanoTime());
+ * // 一次写任务结束或者定时任务触发时
+ * coalescer.flushIfDue(System.nanoTime());
+ * }</pre>
+ *
+ * <p>非线程安全，由所属连接的执行线程独占访问。</p>
+ *
+ * @since 1.6
+ */
+public final class MessageCoalescer {
+
+    /**
+     * 32位长度的varint最多5个字节
+     */
+    static final int MAX_VARINT_LENGTH = 5;
+
+    private final IKcpProtocol kcp;
+
+    private final ByteBufAllocator allocator;
+
+    private final long delayNanos;
+
+    /**
+     * 正在填充的批次
+     */
+    private ByteBuf batch;
+
+    /**
+     * 批次容量(写入第一条消息时的MSS)
+     */
+    private int capacity;
+
+    /**
+     * 批次必须发送的时间(System.nanoTime)
+     */
+    private long deadline;
+
+    /**
+     * 批次所属的优先级车道，不同车道的消息不合并
+     */
+    private int lane;
+
+    /**
+     * 批次的过期时间(System.currentTimeMillis)，取所有消息中最晚的，有不过期的消息时为0
+     */
+    private long expiry;
+
+    // ==================== 统计 ====================
+
+    private long messages;
+
+    private long batches;
+
+    /**
+     * @param kcp         批次发送到的KCP协议实例
+     * @param allocator   批次缓冲区分配器
+     * @param delayMicros 第一条消息最多等待的微秒数，0表示只合并同一次写任务里的消息
+     */
+    public MessageCoalescer(IKcpProtocol kcp, ByteBufAllocator allocator, long delayMicros) {
+        if (delayMicros < 0) {
+            throw new IllegalArgumentException("delayMicros: " + delayMicros + " (expected: >= 0)");
+        }
+        this.kcp = kcp;
+        this.allocator = allocator;
+        this.delayNanos = delayMicros * 1000;
+    }
+
+    /**
+     * 写入一条消息，不持有byteBuf的引用
+     *
+     * @param byteBuf  应用消息
+     * @param nanoTime 当前时间(System.nanoTime)
+     * @return 发送到KCP的结果，0表示成功
+     */
+    public int write(ByteBuf byteBuf, long nanoTime) {
+        return write(byteBuf, 0, nanoTime);
+    }
+
+    /**
+     * 写入一条指定优先级车道的消息，不持有byteBuf的引用
+     *
+     * @param byteBuf  应用消息
+     * @param lane     优先级车道，和正在填充的批次不同时先发送该批次
+     * @param nanoTime 当前时间(System.nanoTime)
+     * @return 发送到KCP的结果，0表示成功
+     */
+    public int write(ByteBuf byteBuf, int lane, long nanoTime) {
+        return write(byteBuf, lane, 0, nanoTime);
+    }
+
+    /**
+     * 写入一条带过期时间的消息，不持有byteBuf的引用
+     *
+     * <p>批次只在所有消息都过期后才会被KCP丢弃。</p>
+     *
+     * @param byteBuf  应用消息
+     * @param lane     优先级车道，和正在填充的批次不同时先发送该批次
+     * @param expireAt 过期时间(System.currentTimeMillis)，0表示不过期
+     * @param nanoTime 当前时间(System.nanoTime)
+     * @return 发送到KCP的结果，0表示成功
+     */
+    public int write(ByteBuf byteBuf, int lane, long expireAt, long nanoTime) {
+        return write(byteBuf, lane, expireAt, null, nanoTime);
+    }
+
+    /**
+     * 写入一条需要跟踪发送结果的消息，不持有byteBuf的引用
+     *
+     * <p>一条KCP消息只能记录一个发送结果，所以需要跟踪的消息不和其他消息合并，先发送正在填充的批次再单独成帧。</p>
+     *
+     * @param byteBuf    应用消息
+     * @param lane       优先级车道
+     * @param expireAt   过期时间(System.currentTimeMillis)，0表示不过期
+     * @param completion 发送结果，null表示不跟踪
+     * @param nanoTime   当前时间(System.nanoTime)
+     * @return 发送到KCP的结果，0表示成功
+     */
+    public int write(ByteBuf byteBuf, int lane, long expireAt, WriteCompletion completion, long nanoTime) {
+        if (batch != null && this.lane != lane) {
+            int ret = flush();
+            if (ret != 0) {
+                if (completion != null) {
+                    completion.complete(WriteCompletion.DROPPED);
+                }
+                return ret;
+            }
+        }
+        int len = byteBuf.readableBytes();
+        int framed = varintSize(len) + len;
+        int mss = kcp.getMss();
+        if (framed > mss || completion != null) {
+            // 大消息单独成帧 头部和数据组合发送
+            int ret = flush();
+            if (ret != 0) {
+                if (completion != null) {
+                    completion.complete(WriteCompletion.DROPPED);
+                }
+                return ret;
+            }
+            messages++;
+            batches++;
+            ByteBuf header = allocator.ioBuffer(MAX_VARINT_LENGTH);
+            writeVarint(header, len);
+            CompositeByteBuf frame = allocator.compositeBuffer(2);
+            frame.addComponent(true, header);
+            frame.addComponent(true, byteBuf.retainedSlice());
+            try {
+                return kcp.send(frame, lane, expireAt, completion);
+            } finally {
+                frame.release();
+            }
+        }
+        if (batch != null && batch.readableBytes() + framed > capacity) {
+            int ret = flush();
+            if (ret != 0) {
+                return ret;
+            }
+        }
+        if (batch == null) {
+            capacity = mss;
+            batch = allocator.ioBuffer(capacity);
+            this.deadline = nanoTime + delayNanos;
+            this.lane = lane;
+            expiry = expireAt;
+        } else if (expiry != 0 && (expireAt == 0 || expireAt - expiry > 0)) {
+            expiry = expireAt;
+        }
+        writeVarint(batch, len);
+        batch.writeBytes(byteBuf, byteBuf.readerIndex(), len);
+        messages++;
+        // 再放不下一条空消息时立即发送
+        if (batch.readableBytes() >= capacity) {
+            return flush();
+        }
+        return 0;
+    }
+
+    /**
+     * 批次到期时发送
+     *
+     * @param nanoTime 当前时间(System.nanoTime)
+     * @return true 如果发送了一个批次
+     */
+    public boolean flushIfDue(long nanoTime) {
+        if (batch == null || nanoTime - deadline < 0) {
+            return false;
+        }
+        flush();
+        return true;
+    }
+
+    /**
+     * 立即发送正在填充的批次
+     *
+     * @return 发送到KCP的结果，0表示成功或者没有待发送的批次
+     */
+    public int flush() {
+        ByteBuf batch = this.batch;
+        if (batch == null) {
+            return 0;
+        }
+        this.batch = null;
+        batches++;
+        try {
+            return kcp.send(batch, lane, expiry);
+        } finally {
+            batch.release();
+        }
+    }
+
+    /**
+     * 是否有未发送的消息
+     */
+    public boolean hasPending() {
+        return batch != null;
+    }
+
+    /**
+     * 距离批次到期的毫秒数，供定时任务调整下次触发时间
+     *
+     * @param nanoTime 当前时间(System.nanoTime)
+     * @return 至少为1，没有待发送的批次时返回 {@link Long#MAX_VALUE}
+     */
+    public long millisUntilDue(long nanoTime) {
+        if (batch == null) {
+            return Long.MAX_VALUE;
+        }
+        long nanos = deadline - nanoTime;
+        return Math.max(1, (nanos + 999_999) / 1_000_000);
+    }
+
+    /**
+     * 释放未发送的批次
+     */
+    public void release() {
+        if (batch != null) {
+            batch.release();
+            batch = null;
+        }
+    }
+
+    /**
+     * 累计写入的消息数
+     */
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     * 累计发送的批次数
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * 把一条合并过的KCP消息拆成应用消息
+     *
+     * <p>拆出的消息是batch的切片并各自持有引用，batch本身仍由调用方释放。</p>
+     *
+     * @param batch 接收到的KCP消息
+     * @param out   拆出的消息
+     * @throws IllegalArgumentException 长度前缀不合法，本次已拆出的消息会被释放
+     */
+    public static void split(ByteBuf batch, List<ByteBuf> out) {
+        int start = out.size();
+        while (batch.isReadable()) {
+            int len = readVarint(batch);
+            if (len < 0 || len > batch.readableBytes()) {
+                for (int i = out.size() - 1; i >= start; i--) {
+                    out.remove(i).release();
+                }
+                throw new IllegalArgumentException("corrupted coalesced message, length: " + len);
+            }
+            out.add(batch.readRetainedSlice(len));
+        }
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void writeVarint(ByteBuf buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    /**
+     * @return 长度，数据不完整或者超过5个字节时返回-1
+     */
+    static int readVarint(ByteBuf buf) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buf.isReadable()) {
+                return -1;
+            }
+            byte b = buf.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageCoalescer{" +
+                "messages=" + messages +
+                ", batches=" + batches +
+                ", pending=" + (batch != null) +
+                '}';
+    }
+}
@@ -0,0 +1,27 @@
+package kcp.kcp;
+
+/**
+ * 读写缓冲区超过字节数上限时的处理策略
+ *
+ * <p>只在设置了缓冲区上限时生效，所有策略都不加锁：</p>
+ * <ul>
+ *   <li><strong>REJECT_NEW</strong>：丢弃新消息，写入返回false，缓冲区为空时超过上限的单条消息仍然接受</li>
+ *   <li><strong>DROP_OLDEST</strong>：接受新消息，由读写任务在执行线程中丢弃最早的消息直到回到上限以内，
+ *   写缓冲区先丢弃优先级最低的车道；超过上限的单条消息直接丢弃</li>
+ *   <li><strong>BLOCK</strong>：写入线程等待写任务腾出空间，超时后丢弃新消息。
+ *   在连接的执行线程中写入(比如在回调中回复)时不阻塞，按REJECT_NEW处理；读缓冲区由I/O线程写入，不能阻塞，按DROP_OLDEST处理</li>
+ *   <li><strong>CLOSE_CONNECTION</strong>：丢弃新消息并关闭连接，适合对端已经无法跟上、不如尽快重连的场景</li>
+ * </ul>
+ *
+ * @since 1.6
+ */
+public enum OverflowPolicy {
+
+    REJECT_NEW,
+
+    DROP_OLDEST,
+
+    BLOCK,
+
+    CLOSE_CONNECTION
+}
@@ -0,0 +1,228 @@
+package kcp.kcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 写缓冲区中等待写任务处理的一条消息
+ *
+ * <p>除了消息本身还带有消息级别的发送属性，比如过期时间。对象从池中获取，
+ * 写任务取出后调用 {@link #recycle()} 或 {@link #release()} 归还。</p>
+ *
+ * <p>合并写入的消息在写任务取出之前可以被写入线程替换，内容放在不可变的 {@link Update} 里整体CAS替换，
+ * 写任务取出时通过 {@link #detach()} 摘下最后一次更新。这类对象不进入对象池：
+ * 写入线程可能还拿着已经被取出的旧条目，复用会让它把更新替换到别的消息上。</p>
+ *
+ * @since 1.6
+ */
+public final class PendingWrite {
+
+    private static final AtomicReferenceFieldUpdater<PendingWrite, Update> UPDATE =
+            AtomicReferenceFieldUpdater.newUpdater(PendingWrite.class, Update.class, "update");
+
+    private static final Recycler<PendingWrite> RECYCLER = new Recycler<PendingWrite>() {
+        @Override
+        protected PendingWrite newObject(Handle<PendingWrite> handle) {
+            return new PendingWrite(handle);
+        }
+    };
+
+    /**
+     * null表示不进入对象池
+     */
+    private final Recycler.Handle<PendingWrite> handle;
+
+    private ByteBuf data;
+
+    /**
+     * 过期时间(System.currentTimeMillis)，0表示不过期
+     */
+    private long deadline;
+
+    /**
+     * 合并写入的键
+     */
+    private long key;
+
+    /**
+     * 是否是合并写入的消息
+     */
+    private boolean keyed;
+
+    /**
+     * 发送结果，null表示不跟踪
+     */
+    private WriteCompletion completion;
+
+    /**
+     * 合并写入还没有被写任务取出时的最新内容，取出之后为null
+     */
+    private volatile Update update;
+
+    private PendingWrite(Recycler.Handle<PendingWrite> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * @param data     消息，引用转移给该对象
+     * @param deadline 过期时间(System.currentTimeMillis)，0表示不过期
+     */
+    public static PendingWrite newInstance(ByteBuf data, long deadline) {
+        PendingWrite write = RECYCLER.get();
+        write.data = data;
+        write.deadline = deadline;
+        return write;
+    }
+
+    /**
+     * @param data       消息，引用转移给该对象
+     * @param deadline   过期时间(System.currentTimeMillis)，0表示不过期
+     * @param completion 发送结果
+     */
+    static PendingWrite newInstance(ByteBuf data, long deadline, WriteCompletion completion) {
+        PendingWrite write = newInstance(data, deadline);
+        write.completion = completion;
+        return write;
+    }
+
+    /**
+     * @param data     消息，引用转移给该对象
+     * @param deadline 过期时间(System.currentTimeMillis)，0表示不过期
+     * @param key      合并写入的键
+     */
+    static PendingWrite newInstance(ByteBuf data, long deadline, long key) {
+        PendingWrite write = new PendingWrite(null);
+        write.key = key;
+        write.keyed = true;
+        write.update = new Update(data, deadline);
+        return write;
+    }
+
+    public ByteBuf getData() {
+        return data;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * 发送结果，null表示不跟踪
+     */
+    public WriteCompletion getCompletion() {
+        return completion;
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * 是否是合并写入的消息
+     */
+    public boolean isKeyed() {
+        return keyed;
+    }
+
+    /**
+     * 合并写入的最新内容
+     *
+     * @return null 如果已经被写任务取出
+     */
+    Update getUpdate() {
+        return update;
+    }
+
+    /**
+     * 用同一个键的新消息替换还没有被取出的内容
+     *
+     * @return false 如果期间被其他写入替换或者已经被写任务取出
+     */
+    boolean replace(Update expect, Update update) {
+        return UPDATE.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * 写任务取出合并消息时摘下最后一次更新，之后不能再被替换，{@link #getData()} 和 {@link #getDeadline()} 开始有效
+     */
+    void detach() {
+        Update update = UPDATE.getAndSet(this, null);
+        if (update != null) {
+            data = update.data;
+            deadline = update.deadline;
+        }
+    }
+
+    /**
+     * 是否已经过期
+     *
+     * @param current 当前时间(System.currentTimeMillis)
+     */
+    public boolean isExpired(long current) {
+        return deadline != 0 && current - deadline >= 0;
+    }
+
+    /**
+     * 归还到对象池，消息的引用由调用方处理
+     */
+    public void recycle() {
+        data = null;
+        deadline = 0;
+        key = 0;
+        keyed = false;
+        completion = null;
+        update = null;
+        if (handle != null) {
+            handle.recycle(this);
+        }
+    }
+
+    /**
+     * 释放消息并归还到对象池
+     */
+    public void release() {
+        ByteBuf data = this.data;
+        recycle();
+        if (data != null) {
+            data.release();
+        }
+    }
+
+    /**
+     * 没有发送就被丢弃，发送结果以指定状态完成，然后释放消息并归还到对象池
+     *
+     * @param state {@link WriteCompletion} 的完成状态
+     */
+    public void discard(int state) {
+        WriteCompletion completion = this.completion;
+        release();
+        if (completion != null) {
+            completion.complete(state);
+        }
+    }
+
+    /**
+     * 合并写入的一次更新
+     */
+    static final class Update {
+
+        final ByteBuf data;
+
+        final long deadline;
+
+        Update(ByteBuf data, long deadline) {
+            this.data = data;
+            this.deadline = deadline;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PendingWrite{" +
+                "length=" + (data == null ? 0 : data.readableBytes()) +
+                ", deadline=" + deadline +
+                '}';
+    }
+}
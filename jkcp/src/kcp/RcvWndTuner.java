@@ -0,0 +1,222 @@
+package kcp.kcp;
+
+/**
+ * 接收窗口自动调整
+ *
+ * <p>每个RTT统计一次应用从接收队列取走的分片数，按 交付速率×RTT 的两倍重新计算通告的接收窗口，
+ * 在配置的接收窗口(下限)和上限之间调整：</p>
+ * <ul>
+ *   <li><strong>增长</strong>：发送端被窗口限制时每个RTT交付量接近窗口，窗口按RTT翻倍，直到链路带宽成为瓶颈或达到上限</li>
+ *   <li><strong>收缩</strong>：应用处理变慢或者流量下降时每个周期收回超出目标部分的1/4，
+ *   且不回收已经通告给远端的窗口右沿，避免在途分片被丢弃</li>
+ * </ul>
+ *
+ * <p>RTT优先使用本端的平滑RTT；只接收数据的一端没有RTT样本，记录窗口右沿前移的时间，
+ * 收到右沿上的分片时得到一个样本。远端必须收到这次通告才能发送该分片，所以样本不小于RTT，
+ * 远端没有数据可发或者丢包时偏大。</p>
+ *
+ * <p>非线程安全，由所属连接的执行线程独占访问，其他线程读取统计时可能看到稍旧的值。</p>
+ *
+ * @since 1.6
+ */
+public final class RcvWndTuner {
+
+    /**
+     * 目标窗口相对每RTT交付量的倍数，给发送端的增长留出余量
+     */
+    static final int TARGET_GAIN = 2;
+
+    /**
+     * 收缩时每个周期收回超出部分的比例(右移位数)
+     */
+    static final int SHRINK_SHIFT = 2;
+
+    private int minWnd;
+
+    private int maxWnd;
+
+    // ==================== 接收端RTT估计 ====================
+
+    /**
+     * rcv_nxt越过该序号时得到一个样本
+     */
+    private int rttSeq;
+
+    private int rttTime = -1;
+
+    private int rcvRtt;
+
+    private int rttSamples;
+
+    /**
+     * 通告过的最大窗口右沿，应用取走数据前接收队列占用窗口，之后通告的右沿可能小于它
+     */
+    private int maxEdge;
+
+    /**
+     * 连续低于当前窗口的周期数
+     */
+    private int lowPeriods;
+
+    // ==================== 当前周期 ====================
+
+    private int periodStart = -1;
+
+    private int periodConsumed;
+
+    // ==================== 统计 ====================
+
+    private long growCount;
+
+    private long shrinkCount;
+
+    private long lastDeliveryRate;
+
+    private int maxRcvWnd;
+
+    void configure(int minWnd, int maxWnd) {
+        this.minWnd = minWnd;
+        this.maxWnd = Math.max(minWnd, maxWnd);
+    }
+
+    /**
+     * 通告窗口时开始一次RTT测量，已有测量进行中时忽略
+     *
+     * @param cur       当前时间(毫秒)
+     * @param rcvNxt    下一个期望接收的序号
+     * @param rightEdge 本次通告的窗口右沿序号
+     */
+    void onAdvertise(int cur, int rcvNxt, int rightEdge) {
+        if (rightEdge - maxEdge <= 0) {
+            return;
+        }
+        maxEdge = rightEdge;
+        // 右沿上的分片只能在远端收到本次通告后发出
+        if (rttTime < 0) {
+            rttSeq = rightEdge;
+            rttTime = cur;
+        }
+    }
+
+    /**
+     * 收到数据后检查测量是否完成
+     *
+     * @param cur    当前时间(毫秒)
+     * @param rcvNxt 下一个期望接收的序号
+     */
+    void onReceive(int cur, int rcvNxt) {
+        if (rttTime < 0 || rcvNxt - rttSeq <= 0) {
+            return;
+        }
+        int sample = Math.max(1, cur - rttTime);
+        rttTime = -1;
+        // 第一个样本可能来自远端按默认窗口发出的数据 丢弃
+        if (rttSamples++ == 0) {
+            return;
+        }
+        rcvRtt = rcvRtt == 0 ? sample : rcvRtt + ((sample - rcvRtt) >> 3);
+    }
+
+    /**
+     * 重新计算接收窗口，未满一个RTT时原样返回
+     *
+     * @param cur       当前时间(毫秒)
+     * @param rcvWnd    当前接收窗口
+     * @param rcvNxt    下一个期望接收的序号
+     * @param queued    接收队列中等待应用取走的分片数
+     * @param srtt      本端平滑RTT，没有样本时为0
+     * @return 新的接收窗口
+     */
+    int tune(int cur, int rcvWnd, int rcvNxt, int queued, int srtt) {
+        // 进入接收队列的分片减去仍在队列中的 就是应用累计取走的
+        int consumed = rcvNxt - queued;
+        int rtt = srtt > 0 && (rcvRtt == 0 || srtt < rcvRtt) ? srtt : rcvRtt;
+        if (periodStart < 0) {
+            periodStart = cur;
+            periodConsumed = consumed;
+            return rcvWnd;
+        }
+        int elapsed = cur - periodStart;
+        if (rtt <= 0 || elapsed < rtt) {
+            return rcvWnd;
+        }
+        int delivered = consumed - periodConsumed;
+        periodStart = cur;
+        periodConsumed = consumed;
+        if (delivered == 0) {
+            // 空闲期间的测量作废 远端可能很久之后才再发数据
+            rttTime = -1;
+        }
+        lastDeliveryRate = (long) delivered * 1000 / elapsed;
+
+        long perRtt = (long) delivered * rtt / elapsed;
+        int target = (int) Math.min(maxWnd, Math.max(minWnd, perRtt * TARGET_GAIN));
+        int wnd = rcvWnd;
+        if (target > rcvWnd) {
+            wnd = target;
+            growCount++;
+            lowPeriods = 0;
+        } else if (target == rcvWnd) {
+            lowPeriods = 0;
+        } else if (++lowPeriods >= 2) {
+            // 窗口受限的发送端每个RTT突发一次 单个周期可能刚好落在间隙里 连续两个周期偏低才收缩
+            wnd = rcvWnd - Math.max(1, (rcvWnd - target) >> SHRINK_SHIFT);
+            wnd = Math.max(Math.max(wnd, maxEdge - rcvNxt), minWnd);
+            if (wnd < rcvWnd) {
+                shrinkCount++;
+            }
+        }
+        if (wnd > maxRcvWnd) {
+            maxRcvWnd = wnd;
+        }
+        return wnd;
+    }
+
+    /**
+     * 窗口增长次数
+     */
+    public long getGrowCount() {
+        return growCount;
+    }
+
+    /**
+     * 窗口收缩次数
+     */
+    public long getShrinkCount() {
+        return shrinkCount;
+    }
+
+    /**
+     * 最近一个周期应用取走分片的速率
+     * @return 分片/秒
+     */
+    public long getLastDeliveryRate() {
+        return lastDeliveryRate;
+    }
+
+    /**
+     * 按收完通告窗口的时间估计的RTT
+     * @return 毫秒，没有样本时为0
+     */
+    public int getRcvRtt() {
+        return rcvRtt;
+    }
+
+    /**
+     * 调整过程中出现过的最大窗口
+     */
+    public int getMaxRcvWnd() {
+        return maxRcvWnd;
+    }
+
+    @Override
+    public String toString() {
+        return "RcvWndTuner{" +
+                "growCount=" + growCount +
+                ", shrinkCount=" + shrinkCount +
+                ", lastDeliveryRate=" + lastDeliveryRate +
+                ", rcvRtt=" + rcvRtt +
+                ", maxRcvWnd=" + maxRcvWnd +
+                '}';
+    }
+}
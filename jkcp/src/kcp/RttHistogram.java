@@ -0,0 +1,170 @@
+package kcp.kcp;
+
+import java.util.Arrays;
+
+/**
+ * RTT直方图
+ *
+ * <p>64毫秒以内每毫秒一个桶，之后每个2的幂区间再分8个桶(相对误差不超过12.5%)，最大记录到 {@value #MAX_VALUE} 毫秒，
+ * 超过的样本计入最后一个桶。记录只做一次数组自增，不分配对象。</p>
+ *
+ * <p>用法：</p>
+ * <pre>{@code
+ * RttHistogram histogram = connection.getRttHistogram();
+ * int p99 = histogram.getPercentile(99);
+ * }</pre>
+ *
+ * <p>只由所属连接的执行线程记录，其他线程读取时可能看到稍旧的值。</p>
+ *
+ * @since 1.6
+ */
+public final class RttHistogram {
+
+    /**
+     * 可以精确到毫秒的上限
+     */
+    static final int LINEAR_LIMIT = 64;
+
+    /**
+     * 每个2的幂区间的桶数(位数)
+     */
+    static final int SUB_BUCKET_BITS = 3;
+
+    static final int MAX_VALUE = 65535;
+
+    private static final int LINEAR_BITS = Integer.numberOfTrailingZeros(LINEAR_LIMIT);
+
+    private static final int BUCKETS = LINEAR_LIMIT
+            + ((32 - Integer.numberOfLeadingZeros(MAX_VALUE) - LINEAR_BITS) << SUB_BUCKET_BITS);
+
+    private final long[] counts = new long[BUCKETS];
+
+    private long count;
+
+    private long sum;
+
+    private int min = Integer.MAX_VALUE;
+
+    private int max;
+
+    /**
+     * 记录一个样本
+     *
+     * @param rtt 毫秒，负数按0记录
+     */
+    public void record(int rtt) {
+        if (rtt < 0) {
+            rtt = 0;
+        } else if (rtt > MAX_VALUE) {
+            rtt = MAX_VALUE;
+        }
+        counts[index(rtt)]++;
+        count++;
+        sum += rtt;
+        if (rtt < min) {
+            min = rtt;
+        }
+        if (rtt > max) {
+            max = rtt;
+        }
+    }
+
+    /**
+     * 样本总数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * 最小值
+     * @return 毫秒，没有样本时为0
+     */
+    public int getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * 最大值
+     * @return 毫秒
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * 平均值
+     * @return 毫秒，没有样本时为0
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * 百分位数
+     *
+     * @param percentile 取值 (0, 100]
+     * @return 样本所在桶的上界(毫秒)，不超过最大值；没有样本时为0
+     */
+    public int getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * Math.min(percentile, 100) / 100);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 清空所有样本
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Integer.MAX_VALUE;
+        max = 0;
+    }
+
+    static int index(int value) {
+        if (value < LINEAR_LIMIT) {
+            return value;
+        }
+        int exp = 31 - Integer.numberOfLeadingZeros(value);
+        int sub = (value >>> (exp - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+        return LINEAR_LIMIT + ((exp - LINEAR_BITS) << SUB_BUCKET_BITS) + sub;
+    }
+
+    static int upperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int offset = index - LINEAR_LIMIT;
+        int exp = (offset >>> SUB_BUCKET_BITS) + LINEAR_BITS;
+        int sub = offset & ((1 << SUB_BUCKET_BITS) - 1);
+        int width = 1 << (exp - SUB_BUCKET_BITS);
+        return (1 << exp) + (sub + 1) * width - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "RttHistogram{" +
+                "count=" + count +
+                ", min=" + getMin() +
+                ", mean=" + String.format("%.1f", getMean()) +
+                ", p50=" + getPercentile(50) +
+                ", p90=" + getPercentile(90) +
+                ", p99=" + getPercentile(99) +
+                ", max=" + max +
+                '}';
+    }
+}
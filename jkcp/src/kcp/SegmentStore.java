@@ -0,0 +1,363 @@
+package kcp.kcp;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 列式(Struct-of-Arrays)存储的KCP分片窗口
+ *
+ * <p>每个分片的头部字段分别存放在按槽位对齐的基本类型数组中，只有负载 {@link ByteBuf} 以引用形式保存，
+ * 不再为每个分片创建 {@link KcpProtocol.Segment} 对象，也不再经过Recycler的线程本地栈。</p>
+ *
+ * <p>按序号寻址的环形滑动窗口：槽位由 {@code seq - baseSeq} 定位，
+ * 容量为2的幂并按窗口大小倍增；也可以通过 {@link #addLast(ByteBuf, byte)}/{@link #removeFirst()}
+ * 当作FIFO队列使用。槽位是否被占用以 {@code data[slot] != null} 判断。</p>
+ *
+ * <p>用法：</p>
+ * <pre>{@code
+ * int slot = store.slot(sn);
+ * if (slot >= 0) {
+ *     store.fastack[slot]++;
+ * }
+ * }</pre>
+ *
+ * <p>非线程安全，由所属连接的执行线程独占访问。</p>
+ *
+ * @since 1.6
+ */
+final class SegmentStore {
+
+    // ==================== 分片字段 ====================
+
+    int[] sn;
+
+    int[] ts;
+
+    int[] resendts;
+
+    int[] rto;
+
+    int[] fastack;
+
+    int[] xmit;
+
+    byte[] frg;
+
+    /**
+     * 发送队列中消息的过期时间(毫秒时间戳)，0表示不过期，进入发送缓冲区后不再使用
+     */
+    long[] deadline;
+
+    /**
+     * 发送队列中消息最后一个分片上的发送结果，null表示不跟踪
+     */
+    WriteCompletion[] completion;
+
+    ByteBuf[] data;
+
+    // ==================== 窗口状态 ====================
+
+    private int mask;
+
+    /**
+     * 窗口左沿对应的序号
+     */
+    private int baseSeq;
+
+    /**
+     * 窗口左沿所在的槽位
+     */
+    private int head;
+
+    /**
+     * 从左沿开始的占用跨度(最后一个分片的偏移+1)
+     */
+    private int span;
+
+    /**
+     * 分片个数
+     */
+    private int size;
+
+    SegmentStore(int initialCapacity) {
+        allocate(roundUpToPowerOf2(Math.max(initialCapacity, 2)));
+    }
+
+    int baseSeq() {
+        return baseSeq;
+    }
+
+    int span() {
+        return span;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 按序号查找槽位
+     *
+     * @return 槽位，不存在返回-1
+     */
+    int slot(int seq) {
+        int offset = seq - baseSeq;
+        if (offset < 0 || offset >= span) {
+            return -1;
+        }
+        int idx = (head + offset) & mask;
+        return data[idx] == null ? -1 : idx;
+    }
+
+    /**
+     * 按相对左沿的偏移取槽位，不检查是否被占用
+     *
+     * @param offset 偏移，取值 [0, span)
+     */
+    int slotAt(int offset) {
+        return (head + offset) & mask;
+    }
+
+    /**
+     * 左沿槽位
+     *
+     * @return 槽位，左沿为空洞时返回-1
+     */
+    int firstSlot() {
+        if (span == 0 || data[head] == null) {
+            return -1;
+        }
+        return head;
+    }
+
+    /**
+     * 右沿最后一个分片的槽位
+     *
+     * @return 槽位，为空时返回-1
+     */
+    int lastSlot() {
+        if (span == 0) {
+            return -1;
+        }
+        return (head + span - 1) & mask;
+    }
+
+    /**
+     * 放入一个分片，其余字段清零
+     *
+     * @return 槽位，已被占用返回-1
+     */
+    int put(int seq, ByteBuf buf, byte fragment) {
+        int offset = seq - baseSeq;
+        if (offset < 0) {
+            throw new IllegalArgumentException("seq " + seq + " is behind window base " + baseSeq);
+        }
+        ensureCapacity(offset + 1);
+        int idx = (head + offset) & mask;
+        if (data[idx] != null) {
+            return -1;
+        }
+        data[idx] = buf;
+        sn[idx] = seq;
+        frg[idx] = fragment;
+        ts[idx] = 0;
+        resendts[idx] = 0;
+        rto[idx] = 0;
+        fastack[idx] = 0;
+        xmit[idx] = 0;
+        deadline[idx] = 0;
+        completion[idx] = null;
+        size++;
+        if (offset >= span) {
+            span = offset + 1;
+        }
+        return idx;
+    }
+
+    /**
+     * 追加到右沿
+     *
+     * @return 槽位
+     */
+    int addLast(ByteBuf buf, byte fragment) {
+        return put(baseSeq + span, buf, fragment);
+    }
+
+    /**
+     * 移除并释放指定序号的分片，不推进左沿
+     *
+     * @return 是否存在
+     */
+    boolean remove(int seq) {
+        int offset = seq - baseSeq;
+        if (offset < 0 || offset >= span) {
+            return false;
+        }
+        int idx = (head + offset) & mask;
+        ByteBuf buf = data[idx];
+        if (buf == null) {
+            return false;
+        }
+        data[idx] = null;
+        buf.release();
+        size--;
+        if (offset == span - 1) {
+            while (span > 0 && data[(head + span - 1) & mask] == null) {
+                span--;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 摘下左沿分片并推进一位，负载的所有权交给调用方
+     *
+     * <p>调用前需先通过 {@link #firstSlot()} 读取需要的字段。</p>
+     *
+     * @return 左沿分片的负载，左沿为空洞时返回null且不推进
+     */
+    ByteBuf removeFirst() {
+        if (span == 0) {
+            return null;
+        }
+        ByteBuf buf = data[head];
+        if (buf == null) {
+            return null;
+        }
+        data[head] = null;
+        completion[head] = null;
+        size--;
+        head = (head + 1) & mask;
+        baseSeq++;
+        span--;
+        return buf;
+    }
+
+    /**
+     * 把左沿推进到第一个分片，窗口为空时不变
+     */
+    void trimHead() {
+        if (size == 0) {
+            return;
+        }
+        while (data[head] == null) {
+            head = (head + 1) & mask;
+            baseSeq++;
+            span--;
+        }
+    }
+
+    /**
+     * 把左沿推进到指定序号，批量释放序号小于它的所有分片
+     *
+     * @return 释放的分片个数
+     */
+    int advanceTo(int seq) {
+        int offset = seq - baseSeq;
+        if (offset <= 0) {
+            return 0;
+        }
+        int n = Math.min(offset, span);
+        int released = 0;
+        for (int i = 0; i < n; i++) {
+            int idx = (head + i) & mask;
+            ByteBuf buf = data[idx];
+            if (buf == null) {
+                continue;
+            }
+            data[idx] = null;
+            buf.release();
+            released++;
+        }
+        size -= released;
+        head = (head + offset) & mask;
+        baseSeq = seq;
+        span = span > offset ? span - offset : 0;
+        return released;
+    }
+
+    /**
+     * 释放所有分片，左沿序号保持不变
+     */
+    void clear() {
+        for (int i = 0; i < span; i++) {
+            int idx = (head + i) & mask;
+            ByteBuf buf = data[idx];
+            if (buf != null) {
+                data[idx] = null;
+                buf.release();
+            }
+        }
+        size = 0;
+        span = 0;
+    }
+
+    private void allocate(int capacity) {
+        sn = new int[capacity];
+        ts = new int[capacity];
+        resendts = new int[capacity];
+        rto = new int[capacity];
+        fastack = new int[capacity];
+        xmit = new int[capacity];
+        frg = new byte[capacity];
+        deadline = new long[capacity];
+        completion = new WriteCompletion[capacity];
+        data = new ByteBuf[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * 窗口缩小后归还多余的容量，容量超过需要的4倍时才收缩，避免反复扩缩
+     *
+     * @param required 需要保留的容量
+     */
+    void trimCapacity(int required) {
+        int newCapacity = roundUpToPowerOf2(Math.max(Math.max(required, span), 2));
+        if (data.length < newCapacity << 2) {
+            return;
+        }
+        resize(newCapacity);
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= data.length) {
+            return;
+        }
+        int newCapacity = roundUpToPowerOf2(required);
+        if (newCapacity < 0) {
+            throw new OutOfMemoryError();
+        }
+        resize(newCapacity);
+    }
+
+    private void resize(int newCapacity) {
+        int[] oldSn = sn, oldTs = ts, oldResendts = resendts, oldRto = rto, oldFastack = fastack, oldXmit = xmit;
+        byte[] oldFrg = frg;
+        long[] oldDeadline = deadline;
+        WriteCompletion[] oldCompletion = completion;
+        ByteBuf[] oldData = data;
+        int oldMask = mask;
+        allocate(newCapacity);
+        for (int i = 0; i < span; i++) {
+            int from = (head + i) & oldMask;
+            sn[i] = oldSn[from];
+            ts[i] = oldTs[from];
+            resendts[i] = oldResendts[from];
+            rto[i] = oldRto[from];
+            fastack[i] = oldFastack[from];
+            xmit[i] = oldXmit[from];
+            frg[i] = oldFrg[from];
+            deadline[i] = oldDeadline[from];
+            completion[i] = oldCompletion[from];
+            data[i] = oldData[from];
+        }
+        head = 0;
+    }
+
+    private static int roundUpToPowerOf2(int number) {
+        return number > 1 ? Integer.highestOneBit(number - 1) << 1 : 1;
+    }
+}
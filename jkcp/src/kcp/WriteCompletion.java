@@ -0,0 +1,123 @@
+package kcp.kcp;
+
+import kcp.listener.KcpListener;
+
+/**
+ * 一条消息的发送结果
+ *
+ * <p>由 {@link KcpConnection#writeAndTrack(io.netty.buffer.ByteBuf)} 返回，消息的最后一个分片被对端累计确认(snd_una越过它)时
+ * 以 {@link #ACKED} 完成；在写缓冲区或者发送队列中被丢弃、或者连接关闭时以对应的状态完成。
+ * 每个对象只完成一次，完成时回调 {@link KcpListener#handleWriteComplete}。</p>
+ *
+ * <p>对象不做池化：调用方拿到的返回值和回调收到的是同一个实例，完成之后两边都可以继续读取状态和附件，
+ * 不再引用时由GC回收。</p>
+ *
+ * <p>用法：</p>
+ * <pre>{@code
+ * WriteCompletion completion = connection.writeAndTrack(byteBuf, 0, requestId);
+ *
+ * public void handleWriteComplete(WriteCompletion completion, KcpConnection connection) {
+ *     if (completion.isSuccess()) {
+ *         onDelivered(completion.getAttachment());
+ *     }
+ * }
+ * }</pre>
+ *
+ * @since 1.6
+ */
+public final class WriteCompletion {
+
+    public static final int PENDING = 0;
+
+    /**
+     * 对端已经确认
+     */
+    public static final int ACKED = 1;
+
+    /**
+     * 发出之前过期被丢弃
+     */
+    public static final int EXPIRED = 2;
+
+    /**
+     * 写缓冲区溢出或者消息不合法被丢弃
+     */
+    public static final int DROPPED = 3;
+
+    /**
+     * 连接关闭时还没有确认
+     */
+    public static final int CLOSED = 4;
+
+    private final KcpConnection connection;
+
+    private final Object attachment;
+
+    private volatile int state;
+
+    /**
+     * 最后一个分片的序号，进入发送缓冲区后有效
+     */
+    int sn;
+
+    WriteCompletion(KcpConnection connection, Object attachment) {
+        this.connection = connection;
+        this.attachment = attachment;
+    }
+
+    /**
+     * 以指定状态完成并回调监听器，已经完成时忽略
+     */
+    void complete(int state) {
+        if (this.state != PENDING) {
+            return;
+        }
+        this.state = state;
+        KcpListener listener = connection.getKcpListener();
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.handleWriteComplete(this, connection);
+        } catch (Throwable throwable) {
+            listener.handleException(throwable, connection);
+        }
+    }
+
+    public boolean isDone() {
+        return state != PENDING;
+    }
+
+    /**
+     * 是否已经被对端确认
+     */
+    public boolean isSuccess() {
+        return state == ACKED;
+    }
+
+    /**
+     * 当前状态，{@link #PENDING}、{@link #ACKED}、{@link #EXPIRED}、{@link #DROPPED} 或 {@link #CLOSED}
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * 写入时传入的附件
+     */
+    public Object getAttachment() {
+        return attachment;
+    }
+
+    public KcpConnection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteCompletion{" +
+                "state=" + state +
+                ", sn=" + sn +
+                '}';
+    }
+}
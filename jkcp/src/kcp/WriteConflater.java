@@ -0,0 +1,125 @@
+package kcp.kcp;
+
+import io.netty.buffer.ByteBuf;
+import org.jctools.maps.NonBlockingHashMapLong;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 写缓冲区的按键合并
+ *
+ * <p>适合"实体X的最新状态"这类同步数据：同一个键的消息还在写缓冲区中没有被写任务取走时，
+ * 新消息直接替换旧消息并沿用旧消息在队列中的位置，旧消息被释放。拥塞时写缓冲区的长度和占用的带宽
+ * 只和不同键的个数有关，而不是和更新频率有关。</p>
+ *
+ * <p>键到排队消息的索引使用基本类型键的无锁哈希表，查找和替换都是O(1)，和其他写入路径一样不加锁：
+ * 替换是对条目内容的一次CAS，写任务取出时原子地摘下最后一次更新，之后的CAS都会失败，
+ * 写入线程发现条目已经被取出就把它从索引中移除并放入新的条目。
+ * 写任务取出合并消息后必须先调用 {@link #detach(PendingWrite)}，之后再读取消息内容。</p>
+ *
+ * <p>写入可以在任意线程调用。</p>
+ *
+ * @since 1.6
+ */
+public final class WriteConflater {
+
+    private final NonBlockingHashMapLong<PendingWrite> index = new NonBlockingHashMapLong<>();
+
+    /**
+     * 被新消息替换掉的消息数
+     */
+    private final AtomicLong conflated = new AtomicLong();
+
+    /**
+     * 写入一条合并消息
+     *
+     * @param key      键
+     * @param data     消息，引用转移给写缓冲区
+     * @param deadline 过期时间(System.currentTimeMillis)，0表示不过期
+     * @param queue    没有同键消息排队时放入的写缓冲区
+     * @param queuedBytes 写缓冲区排队的字节数，按写入或替换的字节数更新
+     * @param capacity 写缓冲区的字节数上限，替换时按增加的字节数检查，0表示不限制
+     * @return false 如果写缓冲区已满，data的引用仍由调用方持有，排队中的同键消息保持不变
+     */
+    public boolean offer(long key, ByteBuf data, long deadline, Queue<PendingWrite> queue,
+                         AtomicLong queuedBytes, long capacity) {
+        int size = data.readableBytes();
+        PendingWrite.Update update = null;
+        for (;;) {
+            PendingWrite queued = index.get(key);
+            if (queued == null) {
+                if (!reserve(queuedBytes, size, capacity)) {
+                    return false;
+                }
+                PendingWrite write = PendingWrite.newInstance(data, deadline, key);
+                if (index.putIfAbsent(key, write) == null) {
+                    // 先进索引再入队 写任务取到条目时索引一定已经指向它
+                    queue.offer(write);
+                    return true;
+                }
+                // 其他写入线程先放入了同键的条目 改为替换它
+                queuedBytes.addAndGet(-size);
+                continue;
+            }
+            PendingWrite.Update current = queued.getUpdate();
+            if (current == null) {
+                // 已经被写任务取出 索引还没有来得及移除
+                index.remove(key, queued);
+                continue;
+            }
+            // 新消息更大时和新条目一样预留增加的字节数 否则替换会绕过写缓冲区上限
+            int delta = size - current.data.readableBytes();
+            if (!reserve(queuedBytes, delta, capacity)) {
+                return false;
+            }
+            if (update == null) {
+                update = new PendingWrite.Update(data, deadline);
+            }
+            if (queued.replace(current, update)) {
+                conflated.incrementAndGet();
+                current.data.release();
+                return true;
+            }
+            queuedBytes.addAndGet(-delta);
+        }
+    }
+
+    private static boolean reserve(AtomicLong queuedBytes, int size, long capacity) {
+        if (size <= 0 || capacity <= 0) {
+            queuedBytes.addAndGet(size);
+            return true;
+        }
+        return KcpConnection.tryReserve(queuedBytes, size, capacity);
+    }
+
+    /**
+     * 写任务取出合并消息后摘下最后一次更新并解除索引，之后同一个键的写入进入新的条目
+     */
+    public void detach(PendingWrite write) {
+        write.detach();
+        index.remove(write.getKey(), write);
+    }
+
+    /**
+     * 排队中的不同键的个数
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * 被新消息替换掉的消息数
+     */
+    public long getConflated() {
+        return conflated.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteConflater{" +
+                "keys=" + size() +
+                ", conflated=" + getConflated() +
+                '}';
+    }
+}
@@ -2,6 +2,9 @@ package kcp.listener;
 
 import io.netty.buffer.ByteBuf;
 import kcp.kcp.KcpConnection;
+import kcp.kcp.WriteCompletion;
+
+import java.util.List;
 
 /**
  * KCP连接事件监听器接口
@@ -32,6 +35,69 @@ public interface KcpListener {
      */
     void handleReceive(ByteBuf data, KcpConnection connection);
 
+    /**
+     * 批量接收数据的回调
+     *
+     * <p>读任务一次取出的所有消息整批交给此方法，列表是回收复用的，只在回调期间有效；
+     * 回调返回后所有数据被释放，需要保留的数据自行 {@code retain()}。
+     * 默认逐条调用 {@link #handleReceive}，单条消息的异常交给 {@link #handleException} 后继续处理下一条；
+     * 重写后在一个循环里解码整批消息，抛出的异常只回调一次。</p>
+     *
+     * @param data 接收到的数据缓冲区，按接收顺序排列
+     * @param connection KCP连接实例
+     * @since 1.6
+     */
+    default void handleReceiveBatch(List<ByteBuf> data, KcpConnection connection) {
+        for (int i = 0, n = data.size(); i < n; i++) {
+            try {
+                handleReceive(data.get(i), connection);
+            } catch (Throwable throwable) {
+                handleException(throwable, connection);
+            }
+        }
+    }
+
+    /**
+     * 接收到不可靠消息的回调
+     *
+     * <p>对端通过 {@link KcpConnection#writeUnreliable(ByteBuf)} 发送的消息，可能丢失或者乱序到达，
+     * 回调返回后数据被释放。默认忽略。</p>
+     *
+     * @param data 接收到的数据缓冲区
+     * @param connection KCP连接实例
+     * @since 1.6
+     */
+    default void handleReceiveUnreliable(ByteBuf data, KcpConnection connection) {
+        // 默认忽略
+    }
+
+    /**
+     * 跟踪的消息完成的回调
+     *
+     * <p>{@link KcpConnection#writeAndTrack} 写入的消息被对端确认、被丢弃或者连接关闭时调用，
+     * 通常在连接的执行线程中，写入被拒绝时在写入线程中。默认忽略。</p>
+     *
+     * @param completion 发送结果
+     * @param connection KCP连接实例
+     * @since 1.6
+     */
+    default void handleWriteComplete(WriteCompletion completion, KcpConnection connection) {
+        // 默认忽略
+    }
+
+    /**
+     * 写缓冲区可写状态变化的回调
+     *
+     * <p>排队的字节数超过高水位或者降到低水位时，在连接的执行线程中调用，
+     * 通过 {@link KcpConnection#isWritable()} 获取当前状态。默认忽略。</p>
+     *
+     * @param connection KCP连接实例
+     * @since 1.6
+     */
+    default void onWritabilityChanged(KcpConnection connection) {
+        // 默认忽略
+    }
+
     /**
      * 处理异常的回调
      *
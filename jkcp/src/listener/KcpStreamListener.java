@@ -0,0 +1,44 @@
+package kcp.listener;
+
+import io.netty.buffer.ByteBuf;
+import kcp.kcp.KcpStream;
+
+/**
+ * 逻辑流事件监听器接口
+ *
+ * <p>开启流复用后，连接上收到的消息按流分发到此接口，而不再交给 {@link KcpListener#handleReceive}。
+ * 所有回调都在连接的执行线程中调用。</p>
+ *
+ * @since 1.6
+ */
+public interface KcpStreamListener {
+
+    /**
+     * 远端打开流的回调
+     *
+     * <p>本端通过 {@link kcp.kcp.KcpConnection#openStream(int)} 打开的流不会回调。</p>
+     *
+     * @param stream 新打开的流
+     */
+    void onStreamOpened(KcpStream stream);
+
+    /**
+     * 流上接收到数据的回调
+     *
+     * <p>回调返回后数据被释放，并把对应的额度归还给远端。
+     * 流关闭了自动读取时数据留在流中，由 {@link KcpStream#read()} 取出，不会回调。</p>
+     *
+     * @param data   接收到的数据
+     * @param stream 所属的流
+     */
+    void handleReceive(ByteBuf data, KcpStream stream);
+
+    /**
+     * 流关闭的回调
+     *
+     * <p>远端关闭流或者连接关闭时调用，本端调用 {@link KcpStream#close()} 时不回调。</p>
+     *
+     * @param stream 关闭的流
+     */
+    void handleClose(KcpStream stream);
+}
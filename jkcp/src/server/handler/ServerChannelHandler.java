@@ -78,6 +78,9 @@ public class ServerChannelHandler extends ChannelInboundHandlerAdapter {
 
         User user = new User(ctx.channel(), msg.sender(), msg.recipient());
         newUkcp.user(user);
+        //收发之前设置事件任务 第一个包的读事件不会丢失
+        ConnectionTask connectionTask = new ConnectionTask(iMessageExecutor, newUkcp, hashedWheelTimer);
+        newUkcp.setEventTask(connectionTask);
         channelManager.New(msg.sender(), newUkcp, msg);
 
         iMessageExecutor.execute(() -> {
@@ -90,8 +93,7 @@ public class ServerChannelHandler extends ChannelInboundHandlerAdapter {
 
         newUkcp.read(byteBuf);
 
-        ScheduleTask scheduleTask = new ScheduleTask(iMessageExecutor, newUkcp,hashedWheelTimer);
-        hashedWheelTimer.newTimeout(scheduleTask,newUkcp.getInterval(), TimeUnit.MILLISECONDS);
+        hashedWheelTimer.newTimeout(connectionTask,newUkcp.getInterval(), TimeUnit.MILLISECONDS);
     }
 
 
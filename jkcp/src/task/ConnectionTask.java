@@ -0,0 +1,312 @@
+package kcp.core;
+
+import kcp.core.FecStub.Snmp;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import kcp.internal.CodecOutputList;
+import kcp.kcp.KcpConnection;
+import kcp.kcp.KcpStreamMux;
+import kcp.kcp.MessageCoalescer;
+import kcp.kcp.PendingWrite;
+import kcp.listener.KcpListener;
+import kcp.threading.EventTask;
+import kcp.threading.IMessageExecutor;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * KCP连接任务
+ *
+ * <p>每个连接一个实例，代替原来分别提交的读任务、写任务和调度任务。
+ * 收包、写入和定时器到期只是设置对应的事件位，由 {@link EventTask} 合并成一次提交，
+ * 在执行线程中按一轮处理：</p>
+ * <pre>
+ * 超时检查 → 取出数据报交给kcp → 回调应用层 → 到期flush → 写缓冲区移入kcp → 快速flush
+ * </pre>
+ *
+ * <p>任务特点：</p>
+ * <ul>
+ *   <li><strong>一次提交</strong>：一轮里收包触发的回复直接在同一轮写入kcp，不再通知写事件再提交一次</li>
+ *   <li><strong>无锁</strong>：不再使用读写两个处理标记，重复的通知不做CAS</li>
+ *   <li><strong>不分配对象</strong>：任务复用，执行器直接提交任务本身</li>
+ *   <li><strong>单一定时</strong>：时间轮上同时只有一个定时，到期后设置定时事件位</li>
+ * </ul>
+ *
+ * <p>使用方式：</p>
+ * <pre>{@code
+ * ConnectionTask connectionTask = new ConnectionTask(messageExecutor, ukcp, hashedWheelTimer);
+ * ukcp.setEventTask(connectionTask);
+ * hashedWheelTimer.newTimeout(connectionTask, ukcp.getInterval(), TimeUnit.MILLISECONDS);
+ * }</pre>
+ *
+ * @since 1.6
+ */
+public class ConnectionTask extends EventTask implements TimerTask {
+
+    private final Ukcp ukcp;
+
+    private final HashedWheelTimer hashedWheelTimer;
+
+    public ConnectionTask(IMessageExecutor messageExecutor, Ukcp ukcp, HashedWheelTimer hashedWheelTimer) {
+        super(messageExecutor);
+        this.ukcp = ukcp;
+        this.hashedWheelTimer = hashedWheelTimer;
+    }
+
+    @Override
+    protected void process(int events) {
+        Ukcp ukcp = this.ukcp;
+        long current = System.currentTimeMillis();
+        boolean update = (events & KcpConnection.EVENT_UPDATE) != 0;
+        //判断连接是否关闭
+        if (update && ukcp.getTimeoutMillis() != 0 && current - ukcp.getTimeoutMillis() > ukcp.getLastRecieveTime()) {
+            ukcp.internalClose();
+        }
+        if (!ukcp.isActive()) {
+            return;
+        }
+        if ((events & KcpConnection.EVENT_READ) != 0) {
+            read(ukcp, current);
+        }
+        if (update) {
+            update(ukcp);
+        }
+        //回调中可能关闭了连接
+        if (!ukcp.isActive()) {
+            return;
+        }
+        //收包和flush腾出了发送窗口 或者有新的写入 在同一轮写入kcp
+        if ((events & KcpConnection.EVENT_WRITE) != 0 || (ukcp.hasPendingWrite() && ukcp.canSend(false))) {
+            write(ukcp);
+        }
+    }
+
+    private void read(Ukcp ukcp, long current) {
+        CodecOutputList<ByteBuf> inputList = null;
+        CodecOutputList<ByteBuf> recvList = null;
+        try {
+            //超过读缓冲区上限时丢弃最早的数据报
+            ukcp.dropOverflowReads();
+            //先取出所有数据报 整批交给kcp 只回一次ack 取出时扣除读缓冲区的字节数
+            for (; ; ) {
+                ByteBuf byteBuf = ukcp.pollRead();
+                if (byteBuf == null) {
+                    break;
+                }
+                if (inputList == null) {
+                    inputList = CodecOutputList.newInstance();
+                }
+                inputList.add(byteBuf);
+            }
+            if (inputList == null) {
+                return;
+            }
+            int readCount = inputList.size();
+            try {
+                ukcp.input(inputList, current);
+            } finally {
+                for (int i = 0; i < readCount; i++) {
+                    inputList.getUnsafe(i).release();
+                }
+            }
+            //不可靠消息不用等待重传 先回调
+            for (ByteBuf unreliable = ukcp.recvUnreliable(); unreliable != null; unreliable = ukcp.recvUnreliable()) {
+                ukcp.setLastRecieveTime(current);
+                try {
+                    ukcp.getKcpListener().handleReceiveUnreliable(unreliable, ukcp);
+                } catch (Throwable throwable) {
+                    ukcp.getKcpListener().handleException(throwable, ukcp);
+                } finally {
+                    unreliable.release();
+                }
+            }
+            long readBytes = 0;
+            MessageCoalescer coalescer = ukcp.getCoalescer();
+            //流模式下mergeReceive一次取走rcv_queue里所有连续的字节 不再按分片回调
+            //取出所有消息后整批回调
+            while (ukcp.canRecv()) {
+                ByteBuf recvBuf = ukcp.mergeReceive();
+                readBytes += recvBuf.readableBytes();
+                if (recvList == null) {
+                    recvList = CodecOutputList.newInstance();
+                }
+                if (coalescer == null) {
+                    recvList.add(recvBuf);
+                    continue;
+                }
+                //拆开合并的小消息 每条消息单独作为一个元素
+                try {
+                    MessageCoalescer.split(recvBuf, recvList);
+                } finally {
+                    recvBuf.release();
+                }
+            }
+            if (recvList != null) {
+                //回调后由readBytebufs释放并回收
+                CodecOutputList<ByteBuf> bufs = recvList;
+                recvList = null;
+                readBytebufs(bufs, current, ukcp);
+            }
+            Snmp.snmp.BytesReceived.add(readBytes);
+        } catch (Throwable e) {
+            ukcp.internalClose();
+            e.printStackTrace();
+        } finally {
+            if (inputList != null) {
+                inputList.recycle();
+            }
+            if (recvList != null) {
+                //异常中断时还没有回调的消息
+                for (int i = 0, n = recvList.size(); i < n; i++) {
+                    recvList.getUnsafe(i).release();
+                }
+                recvList.recycle();
+            }
+        }
+    }
+
+    private void readBytebufs(CodecOutputList<ByteBuf> bufs,long current,Ukcp ukcp) {
+        ukcp.setLastRecieveTime(current);
+        KcpListener listener = ukcp.getKcpListener();
+        int n = bufs.size();
+        try {
+            KcpStreamMux streamMux = ukcp.getStreamMux();
+            if (streamMux == null) {
+                listener.handleReceiveBatch(bufs, ukcp);
+                return;
+            }
+            //按流ID分发给对应的流
+            for (int i = 0; i < n; i++) {
+                try {
+                    streamMux.handleFrame(bufs.getUnsafe(i));
+                } catch (Throwable throwable) {
+                    listener.handleException(throwable, ukcp);
+                }
+            }
+        } catch (Throwable throwable) {
+            listener.handleException(throwable, ukcp);
+        } finally {
+            for (int i = 0; i < n; i++) {
+                bufs.getUnsafe(i).release();
+            }
+            bufs.recycle();
+        }
+    }
+
+    //flush策略
+    //1,在send调用后检查缓冲区如果可以发送直接调用update得到时间并存在ukcp内
+    //2，定时到了检查ukcp的时间和自己的定时 如果可以发送则直接发送  时间延后则重新定时
+    //定时发送成功后检测缓冲区  是否触发发送时间
+    //3，收包后检测缓冲区 在同一轮写入
+    //问题: 精准大量的flush触发会导致ack重复发送   流量增大？  不会的 ack只会发送一次
+    private void update(Ukcp ukcp) {
+        try {
+            long now = System.currentTimeMillis();
+            long timeLeft = ukcp.getTsUpdate() - now;
+            //合并的小消息到期后立即flush 否则按批次到期时间提前触发 精度受时间轮tick限制
+            MessageCoalescer coalescer = ukcp.getCoalescer();
+            if (coalescer != null && coalescer.flushIfDue(System.nanoTime())) {
+                timeLeft = 0;
+            }
+            //判断执行时间是否到了
+            if (timeLeft > 0) {
+                if (coalescer != null) {
+                    timeLeft = Math.min(timeLeft, coalescer.millisUntilDue(System.nanoTime()));
+                }
+                hashedWheelTimer.newTimeout(this,timeLeft, TimeUnit.MILLISECONDS);
+                return;
+            }
+            //开启节奏控制时 被推迟的分片会让next缩短到预算恢复的时间 由时间轮在间隔内多次触发
+            long next = ukcp.flush(now);
+            ukcp.setTsUpdate(now + next);
+            if (coalescer != null) {
+                next = Math.min(next, coalescer.millisUntilDue(System.nanoTime()));
+            }
+            hashedWheelTimer.newTimeout(this,next, TimeUnit.MILLISECONDS);
+            ukcp.fireWritabilityChanged();
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void write(Ukcp ukcp) {
+        try {
+            //超过写缓冲区上限时丢弃最早的消息
+            ukcp.dropOverflowWrites();
+            //不可靠消息不受发送窗口限制 先于可靠消息立即发出
+            Queue<ByteBuf> unreliableQueue = ukcp.getUnreliableWriteBuffer();
+            if (!unreliableQueue.isEmpty()) {
+                long now = System.currentTimeMillis();
+                ByteBuf byteBuf;
+                while ((byteBuf = unreliableQueue.poll()) != null) {
+                    try {
+                        ukcp.sendUnreliable(byteBuf, now);
+                    } finally {
+                        byteBuf.release();
+                    }
+                }
+            }
+            //从发送缓冲区到kcp缓冲区 按优先级车道选择下一条消息
+            MessageCoalescer coalescer = ukcp.getCoalescer();
+            long writeBytes = 0;
+            long current = System.currentTimeMillis();
+            while(ukcp.canSend(false)){
+                int lane = ukcp.nextWriteLane();
+                if(lane<0){
+                    break;
+                }
+                PendingWrite write = ukcp.pollWrite(lane);
+                if(write==null){
+                    break;
+                }
+                //过期的消息不再进入kcp
+                if(write.isExpired(current)){
+                    ukcp.dropExpiredWrite(write);
+                    continue;
+                }
+                try {
+                    ByteBuf byteBuf = write.getData();
+                    writeBytes +=byteBuf.readableBytes();
+                    if (coalescer != null) {
+                        coalescer.write(byteBuf, lane, write.getDeadline(), write.getCompletion(), System.nanoTime());
+                    } else {
+                        ukcp.send(byteBuf, lane, write.getDeadline(), write.getCompletion());
+                    }
+                    write.release();
+                } catch (IOException e) {
+                    ukcp.getKcpListener().handleException(e, ukcp);
+                    return;
+                }
+            }
+            //写缓冲区腾出了空间 重试之前被拒绝的流帧
+            KcpStreamMux streamMux = ukcp.getStreamMux();
+            if (streamMux != null) {
+                streamMux.resumeBlocked();
+            }
+            //没到期的批次留给定时发送
+            if (coalescer != null) {
+                coalescer.flushIfDue(System.nanoTime());
+            }
+            //写缓冲区降到低水位时通知生产者恢复写入
+            ukcp.fireWritabilityChanged();
+            Snmp.snmp.BytesSent.add(writeBytes);
+            //如果有发送 则检测时间
+            if(!ukcp.canSend(false)||(ukcp.checkFlush()&& ukcp.isFastFlush())){
+                long now =System.currentTimeMillis();
+                long next = ukcp.flush(now);
+                ukcp.setTsUpdate(now+next);
+            }
+        }catch (Throwable e){
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        signal(KcpConnection.EVENT_UPDATE);
+    }
+}
@@ -58,6 +58,20 @@ public class DisruptorExecutorPool implements IMessageExecutorPool
 	
 	
 	
+	/**
+	 * 设置所有线程直接执行的最大嵌套深度
+	 * @see IMessageExecutor#setMaxInlineDepth(int)
+	 */
+	public void setMaxInlineDepth(int maxInlineDepth)
+	{
+		for(IMessageExecutor process:executor)
+		{
+			process.setMaxInlineDepth(maxInlineDepth);
+		}
+	}
+	
+	
+	
 	/**
 	 * 从线程池中按算法获得一个线程对象
 	 * @return
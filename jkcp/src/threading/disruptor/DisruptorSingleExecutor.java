@@ -36,13 +36,22 @@ public class DisruptorSingleExecutor implements IMessageExecutor {
 	/**线程名字**/
 	private String threadName;
 
-	private DisruptorThread currentThread;
+	private volatile DisruptorThread currentThread;
+
+	/**在执行线程中直接执行的最大嵌套深度 0总是放进队列**/
+	private volatile int maxInlineDepth;
 
 
 	public DisruptorSingleExecutor(String threadName)
 	{
 		this.threadName = threadName;
 	}
+
+	public DisruptorSingleExecutor(String threadName, int maxInlineDepth)
+	{
+		this.threadName = threadName;
+		this.maxInlineDepth = maxInlineDepth;
+	}
 	
 
 	@SuppressWarnings("unchecked")
@@ -119,18 +128,50 @@ public class DisruptorSingleExecutor implements IMessageExecutor {
 
 	@Override
 	public void execute(ITask iTask){
-		Thread currentThread = Thread.currentThread();
-		//if(currentThread==this.currentThread){
-		//	iTask.execute();
-		//	return;
-		//}
-		//		if(buffer.hasAvailableCapacity(1))
-//		{
-//			System.out.println("没有容量了");
-//		}
+		int maxInlineDepth = this.maxInlineDepth;
+		if (maxInlineDepth > 0) {
+			Thread currentThread = Thread.currentThread();
+			if (currentThread == this.currentThread) {
+				//嵌套深度记在执行线程上 只有它自己读写
+				DisruptorThread thread = (DisruptorThread) currentThread;
+				int depth = thread.getInlineDepth();
+				if (depth < maxInlineDepth) {
+					thread.setInlineDepth(depth + 1);
+					try {
+						iTask.execute();
+					} catch (Throwable throwable) {
+						//和放进队列时一样 异常不抛给提交任务的调用方
+						DistriptorHandler.logger.error("error", throwable);
+					} finally {
+						thread.setInlineDepth(depth);
+					}
+					return;
+				}
+			}
+		}
+		enqueue(iTask);
+	}
+
+	@Override
+	public boolean inExecutorThread() {
+		return Thread.currentThread() == currentThread;
+	}
+
+	@Override
+	public void enqueue(ITask iTask){
 		long next = buffer.next();
 		DistriptorHandler testEvent = buffer.get(next);
 		testEvent.setTask(iTask);
 		buffer.publish(next);
 	}
+
+	@Override
+	public int getMaxInlineDepth() {
+		return maxInlineDepth;
+	}
+
+	@Override
+	public void setMaxInlineDepth(int maxInlineDepth) {
+		this.maxInlineDepth = maxInlineDepth;
+	}
 }
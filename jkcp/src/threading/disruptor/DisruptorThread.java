@@ -11,6 +11,11 @@ public class DisruptorThread  extends Thread{
      */
     private IMessageExecutor messageExecutor;
 
+    /**
+     * 当前直接执行任务的嵌套深度 只由本线程读写
+     */
+    private int inlineDepth;
+
 
     public DisruptorThread(IMessageExecutor messageExecutor) {
         this.messageExecutor = messageExecutor;
@@ -59,6 +64,14 @@ public class DisruptorThread  extends Thread{
         this.messageExecutor = messageExecutor;
     }
 
+    int getInlineDepth() {
+        return inlineDepth;
+    }
+
+    void setInlineDepth(int inlineDepth) {
+        this.inlineDepth = inlineDepth;
+    }
+
     @Override
     public String toString() {
         return "DisruptorThread{" +
@@ -0,0 +1,87 @@
+package kcp.threading;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按脏标记调度的可复用任务
+ *
+ * <p>每个连接一个实例，事件用位表示。{@link #signal(int)} 把事件位合并到状态里，
+ * 只有任务没有在排队或执行时才提交给执行器；已经在排队或执行的任务会在下一轮看到新的事件位，
+ * 同一个事件位还没被取走时重复的通知只读一次状态，不做CAS也不提交。</p>
+ *
+ * <p>执行时每一轮用一次交换取走所有事件位交给 {@link #process(int)}，处理完没有新事件就退出；
+ * 连续处理 {@value #MAX_ROUNDS} 轮还有新事件时重新放进执行器的队列，让同一个线程上的其他连接也能执行。
+ * 执行器开启直接执行时，空闲的任务被执行线程上的其他任务通知会立即嵌套执行；
+ * 正在执行的任务再被通知只设置事件位，不会重入。
+ * 整个过程不分配对象。</p>
+ *
+ * @since 1.6
+ */
+public abstract class EventTask implements ITask {
+
+    /**
+     * 已经提交给执行器或者正在执行
+     */
+    private static final int SCHEDULED = 1 << 31;
+
+    /**
+     * 一次执行最多处理的轮数
+     */
+    private static final int MAX_ROUNDS = 16;
+
+    private final AtomicInteger state = new AtomicInteger();
+
+    private final IMessageExecutor messageExecutor;
+
+    protected EventTask(IMessageExecutor messageExecutor) {
+        this.messageExecutor = messageExecutor;
+    }
+
+    /**
+     * 通知事件，可以在任意线程调用
+     *
+     * @param events 事件位，不能使用最高位
+     */
+    public final void signal(int events) {
+        for (;;) {
+            int current = state.get();
+            if ((current & SCHEDULED) != 0 && (current & events) == events) {
+                return;
+            }
+            if (state.compareAndSet(current, current | events | SCHEDULED)) {
+                if ((current & SCHEDULED) == 0) {
+                    messageExecutor.execute(this);
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public final void execute() {
+        for (int round = 0; ; round++) {
+            int events = state.getAndSet(SCHEDULED) & ~SCHEDULED;
+            if (events != 0) {
+                try {
+                    process(events);
+                } catch (Throwable throwable) {
+                    throwable.printStackTrace();
+                }
+            }
+            if (state.compareAndSet(SCHEDULED, 0)) {
+                return;
+            }
+            if (round + 1 >= MAX_ROUNDS) {
+                messageExecutor.enqueue(this);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 在执行线程中处理一批事件
+     *
+     * @param events 上一轮之后通知的所有事件位
+     */
+    protected abstract void process(int events);
+}
@@ -21,8 +21,52 @@ public interface IMessageExecutor{
 	/**
 	 * 执行任务
 	 * 注意: 如果线程等于当前线程 则直接执行  如果非当前线程放进队列
+	 * 直接执行需要开启 {@link #setMaxInlineDepth(int)}，否则总是放进队列
 	 *
 	 * @param iTask
 	 */
 	void execute(ITask iTask);
-}
\ No newline at end of file
+
+
+	/**
+	 * 当前线程是否就是执行线程
+	 * 在执行线程中不能等待队列里的任务 否则会把自己卡住
+	 * @return
+	 */
+	default boolean inExecutorThread() {
+		return false;
+	}
+
+
+	/**
+	 * 总是放进队列 即使当前就是执行线程
+	 * 用于需要让出线程 或者不能在调用方中间执行的任务
+	 *
+	 * @param iTask
+	 */
+	default void enqueue(ITask iTask) {
+		execute(iTask);
+	}
+
+
+	/**
+	 * 已经在执行线程中时直接执行的最大嵌套深度 0表示总是放进队列
+	 * @return
+	 */
+	default int getMaxInlineDepth() {
+		return 0;
+	}
+
+
+	/**
+	 * 设置直接执行的最大嵌套深度
+	 * 在执行线程中调用execute时不再放进队列等待下一次唤醒 而是直接执行 省掉一次排队和一次线程唤醒
+	 * 直接执行的任务会先于已经在队列中的任务执行 任务之间有顺序要求时不要开启
+	 * 嵌套超过深度后放进队列 避免任务互相提交时栈溢出
+	 * 不支持的实现忽略该设置
+	 *
+	 * @param maxInlineDepth 0关闭
+	 */
+	default void setMaxInlineDepth(int maxInlineDepth) {
+	}
+}
@@ -2,7 +2,14 @@ package kcp.threading;
 
 /**
  * 2018/5/2.
+ *
+ * <p>同时是一个Runnable，run()就是execute()，执行器可以直接提交任务本身，不用每次再包装一个对象。</p>
  */
-public interface ITask {
+public interface ITask extends Runnable {
     void execute();
+
+    @Override
+    default void run() {
+        execute();
+    }
 }
@@ -2,7 +2,10 @@ package kcp.threading.netty;
 
 import io.netty.channel.DefaultEventLoop;
 import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.FastThreadLocal;
 import io.netty.util.concurrent.ThreadProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import kcp.threading.IMessageExecutor;
 import kcp.threading.ITask;
 
@@ -11,13 +14,32 @@ import kcp.threading.ITask;
  */
 public class NettyMessageExecutor implements IMessageExecutor {
 
+    private static final Logger logger = LoggerFactory.getLogger(NettyMessageExecutor.class);
+
+    /**
+     * 当前线程直接执行的嵌套深度 同一个eventLoop上的所有执行器共享
+     */
+    private static final FastThreadLocal<int[]> INLINE_DEPTH = new FastThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
     private EventLoop eventLoop;
 
+    private volatile int maxInlineDepth;
+
 
     public NettyMessageExecutor(EventLoop eventLoop) {
         this.eventLoop = eventLoop;
     }
 
+    public NettyMessageExecutor(EventLoop eventLoop, int maxInlineDepth) {
+        this.eventLoop = eventLoop;
+        this.maxInlineDepth = maxInlineDepth;
+    }
+
     @Override
     public void stop() {
 
@@ -30,10 +52,43 @@ public class NettyMessageExecutor implements IMessageExecutor {
 
     @Override
     public void execute(ITask iTask) {
-        //if(eventLoop.inEventLoop()){
-        //    iTask.execute();
-        //}else{
-            this.eventLoop.execute(() -> iTask.execute());
-        //}
+        int maxInlineDepth = this.maxInlineDepth;
+        if (maxInlineDepth > 0 && inExecutorThread()) {
+            int[] depth = INLINE_DEPTH.get();
+            if (depth[0] < maxInlineDepth) {
+                depth[0]++;
+                try {
+                    iTask.execute();
+                } catch (Throwable throwable) {
+                    //和放进队列时一样 异常不抛给提交任务的调用方
+                    logger.error("error", throwable);
+                } finally {
+                    depth[0]--;
+                }
+                return;
+            }
+        }
+        //ITask本身就是Runnable 直接提交 不再每次包装一个lambda
+        this.eventLoop.execute(iTask);
+    }
+
+    @Override
+    public boolean inExecutorThread() {
+        return eventLoop.inEventLoop();
+    }
+
+    @Override
+    public void enqueue(ITask iTask) {
+        this.eventLoop.execute(iTask);
+    }
+
+    @Override
+    public int getMaxInlineDepth() {
+        return maxInlineDepth;
+    }
+
+    @Override
+    public void setMaxInlineDepth(int maxInlineDepth) {
+        this.maxInlineDepth = maxInlineDepth;
     }
 }
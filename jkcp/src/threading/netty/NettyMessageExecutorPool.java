@@ -2,6 +2,7 @@ package kcp.threading.netty;
 
 import io.netty.channel.DefaultEventLoopGroup;
 import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.FastThreadLocalThread;
 import kcp.threading.IMessageExecutor;
 import kcp.threading.IMessageExecutorPool;
 
@@ -17,15 +18,30 @@ public class NettyMessageExecutorPool implements IMessageExecutorPool {
 
     protected static final AtomicInteger index = new AtomicInteger();
 
+    /**
+     * 新建执行器在执行线程中直接执行的最大嵌套深度 0总是放进队列
+     */
+    private volatile int maxInlineDepth;
+
     public NettyMessageExecutorPool(int workSize){
         eventExecutors = new DefaultEventLoopGroup(workSize, r -> {
-            return new Thread(r,"nettyMessageExecutorPool-"+index.incrementAndGet());
+            //FastThreadLocalThread上记录直接执行的嵌套深度不用查ThreadLocal表
+            return new FastThreadLocalThread(r,"nettyMessageExecutorPool-"+index.incrementAndGet());
         });
     }
 
     @Override
     public IMessageExecutor getIMessageExecutor() {
-        return new NettyMessageExecutor(eventExecutors.next());
+        return new NettyMessageExecutor(eventExecutors.next(), maxInlineDepth);
+    }
+
+    /**
+     * 设置之后获取的执行器直接执行的最大嵌套深度
+     *
+     * @see IMessageExecutor#setMaxInlineDepth(int)
+     */
+    public void setMaxInlineDepth(int maxInlineDepth) {
+        this.maxInlineDepth = maxInlineDepth;
     }
 
     @Override